@@ -0,0 +1,102 @@
+package model;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Accesses to the data and directory of an L1 cache, filled with the lines 0 to nways * nsets - 1 (the resident lines).
+ * Each call accesses the next line of a fixed sequence, so that all the sets and ways are visited:
+ *  - readHit and invalHit access the resident lines
+ *  - readMiss accesses lines with the same sets but other tags
+ *  - readSelect looks for a victim in the full sets
+ *  - writeLine writes the missing lines then the resident lines, replacing a line at each call
+ * @author QLM
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheL1Benchmark {
+
+	@Param({ "1", "4" })
+	int nways;
+
+	@Param({ "16", "256" })
+	int nsets;
+
+	private static final int nwords = 8;
+
+	private CacheL1 m_cache;
+	private long [] m_hits;
+	private long [] m_misses;
+	private long [] m_lines;
+	private int m_next = 0;
+
+	private long [] m_buf = new long[nwords];
+	private LineState m_state = new LineState();
+	private CacheAccessResult m_result = new CacheAccessResult(nwords);
+
+	@Setup
+	public void setup() {
+		m_cache = new CacheL1("bench cache", 0, nways, nsets, nwords);
+		int nlines = nways * nsets;
+		int lineSize = 4 * nwords;
+		m_hits = new long[nlines];
+		m_misses = new long[nlines];
+		m_lines = new long[2 * nlines];
+		for (int i = 0; i < nlines; i++) {
+			m_hits[i] = (long) i * lineSize + 4 * (i % nwords);
+			m_misses[i] = m_hits[i] + (long) nlines * lineSize;
+			m_cache.writeLine(m_hits[i], m_buf, false);
+		}
+		// twice as many lines as the cache can hold, so that each write replaces a line
+		System.arraycopy(m_misses, 0, m_lines, 0, nlines);
+		System.arraycopy(m_hits, 0, m_lines, nlines, nlines);
+	}
+
+	private int next(int n) {
+		m_next = (m_next + 1) & (n - 1);
+		return m_next;
+	}
+
+	@Benchmark
+	public boolean readHit() {
+		return m_cache.read(m_hits[next(m_hits.length)], m_buf, m_state);
+	}
+
+	@Benchmark
+	public boolean readMiss() {
+		return m_cache.read(m_misses[next(m_misses.length)], m_buf, m_state);
+	}
+
+	@Benchmark
+	public long readSelect() {
+		return m_cache.readSelect(m_misses[next(m_misses.length)], m_result).victimAddress;
+	}
+
+	@Benchmark
+	public void writeLine(Blackhole bh) {
+		m_cache.writeLine(m_lines[next(m_lines.length)], m_buf, false);
+		bh.consume(m_cache);
+	}
+
+	@Benchmark
+	public long invalHit() {
+		return m_cache.inval(m_hits[next(m_hits.length)], false, m_result).victimAddress;
+	}
+
+}
@@ -0,0 +1,125 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import model.Request.cmd_t;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Routing of the requests by a channel, by address or by tgtid, towards nbOutputs modules.
+ * Each call pushes a batch of requests spread over all the outputs, simulates the cycle at which they leave the
+ * channel, and pops them from the outputs; the requests are reused and not retained, so that the time reported
+ * (per request) is the one of the channel and not of the allocator.
+ * @author QLM
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChannelBenchmark {
+
+	@Param({ "true", "false" })
+	boolean addressRouting;
+
+	@Param({ "1", "4", "16" })
+	int nbOutputs;
+
+	private static final int batchSize = 64;
+	private static final int segmentSize = 0x1000;
+
+	private Channel m_channel;
+	private List<Module> m_outputs = new ArrayList<Module>();
+	private Request [] m_reqs = new Request[batchSize];
+
+	/**
+	 * Module only reading its input port
+	 */
+	private static class Sink implements Module {
+
+		private int m_srcid;
+
+		Sink(int srcid) {
+			m_srcid = srcid;
+		}
+
+		public int getSrcid() {
+			return m_srcid;
+		}
+
+		public String getName() {
+			return "sink " + m_srcid;
+		}
+
+		public void simulate1Cycle() {
+		}
+
+		public int nextEventCycle() {
+			return Integer.MAX_VALUE;
+		}
+
+		public void skipCycles(int n) {
+		}
+	}
+
+	@Setup
+	public void setup() {
+		m_channel = new Channel("bench channel", nbOutputs, addressRouting, new ArrayList<Request>());
+		m_channel.setRetention(false);
+		m_channel.setLatencyModel(new FixedLatency(0));
+		for (int i = 0; i < nbOutputs; i++) {
+			Module m = new Sink(i);
+			if (addressRouting) {
+				List<Segment> seglist = new ArrayList<Segment>();
+				Segment seg = new Segment("bench_seg" + i, (long) i * segmentSize, segmentSize, true);
+				seg.setTgtid(i);
+				seglist.add(seg);
+				m_channel.addAddrTranslation(seglist, m);
+			}
+			else {
+				m_channel.addTgtidTranslation(i, m);
+			}
+			m_outputs.add(m);
+		}
+		for (int i = 0; i < batchSize; i++) {
+			m_reqs[i] = new Request();
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(batchSize)
+	public int route() {
+		for (int i = 0; i < batchSize; i++) {
+			int out = i % nbOutputs;
+			long address = (long) out * segmentSize + 4 * i;
+			m_reqs[i].init(address, 0, addressRouting ? -1 : out, cmd_t.READ_WORD, 0, 0, null, 0xF);
+			m_channel.pushBack(m_reqs[i]);
+		}
+		m_channel.simulate1Cycle();
+		int nb = 0;
+		for (Module m : m_outputs) {
+			while (!m_channel.empty(m)) {
+				m_channel.popFront(m);
+				nb++;
+			}
+		}
+		assert (nb == batchSize);
+		return nb;
+	}
+
+}
@@ -0,0 +1,120 @@
+package model;
+
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+import utils.Trace;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Accesses to the data and directory of a memory made of segments, for each directory format.
+ * The memory has nbSegments segments of 64 KiB; nbLines lines spread over all the segments are written,
+ * and each of them is shared by two caches. Each call accesses the next of these lines.
+ * @author QLM
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RamBenchmark {
+
+	@Param({ "bitvector", "pointers", "coarse" })
+	String directory;
+
+	@Param({ "4", "64" })
+	int nbCaches;
+
+	@Param({ "1", "64" })
+	int nbSegments;
+
+	private static final int nwords = 8;
+	private static final int segmentSize = 0x10000;
+	private static final int nbLines = 1024;
+
+	private Ram m_ram;
+	private long [] m_lines = new long[nbLines];
+	private int m_next = 0;
+
+	private long [] m_buf = new long[nwords];
+	private CopiesList m_copies;
+
+	@Setup
+	public void setup() {
+		Trace.setLevel(Trace.Level.OFF);
+		CopiesList dirFormat;
+		if (directory.equals("pointers")) {
+			dirFormat = new LimitedPointerCopiesList(L1Controller.l1StartId, nbCaches, 4);
+		}
+		else if (directory.equals("coarse")) {
+			dirFormat = new CoarseVectorCopiesList(L1Controller.l1StartId, nbCaches, 4);
+		}
+		else {
+			dirFormat = new BitVectorCopiesList(L1Controller.l1StartId, nbCaches);
+		}
+		Vector<Segment> segments = new Vector<Segment>();
+		for (int i = 0; i < nbSegments; i++) {
+			segments.add(new Segment("bench_seg" + i, (long) i * segmentSize, segmentSize, true));
+		}
+		m_ram = new Ram("bench ram", nwords, segments, dirFormat);
+		m_copies = m_ram.newCopiesList();
+
+		int lineSize = 4 * nwords;
+		for (int i = 0; i < nbLines; i++) {
+			// successive lines in successive segments
+			m_lines[i] = (long) (i % nbSegments) * segmentSize + (long) (i / nbSegments) * lineSize;
+			m_buf[0] = i;
+			m_ram.writeLine(m_lines[i], m_buf);
+			m_ram.addCopy(m_lines[i], L1Controller.l1StartId + i % nbCaches);
+			m_ram.addCopy(m_lines[i], L1Controller.l1StartId + (i + 1) % nbCaches);
+		}
+	}
+
+	private long next() {
+		m_next = (m_next + 1) & (nbLines - 1);
+		return m_lines[m_next];
+	}
+
+	@Benchmark
+	public long [] getLine() {
+		return m_ram.getLine(next(), m_buf);
+	}
+
+	@Benchmark
+	public CopiesList getCopies() {
+		m_ram.getCopies(next(), m_copies);
+		return m_copies;
+	}
+
+	@Benchmark
+	public int nbCopies() {
+		return m_ram.nbCopies(next());
+	}
+
+	@Benchmark
+	public boolean hasOtherCopy() {
+		return m_ram.hasOtherCopy(next(), L1Controller.l1StartId);
+	}
+
+	@Benchmark
+	public void addRemoveCopy() {
+		long line = next();
+		// a cache not sharing the line
+		int id = L1Controller.l1StartId + (m_next + 2) % nbCaches;
+		m_ram.addCopy(line, id);
+		m_ram.removeCopy(line, id);
+	}
+
+}
@@ -0,0 +1,115 @@
+package topcells;
+
+import java.util.concurrent.TimeUnit;
+
+import model.Processor;
+import simulation.BatchSimul;
+import utils.Trace;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Complete simulations of topcells built by a TopcellBuilder (WTI protocol), at several numbers of processors
+ * and with several generated workloads, each processor issuing nbReqs requests:
+ *  - private: each processor writes then reads back the words of its own lines
+ *  - shared: all the processors write and read the same few lines, so that most writes invalidate copies
+ *  - stream: each processor reads consecutive lines, so that almost all the reads miss
+ * Each call simulates a new topcell until all the processors have received their responses. The score is the
+ * number of calls per second, and the secondary result "cycles" the number of simulated cycles per second.
+ * @author QLM
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TopcellBenchmark {
+
+	@Param({ "1", "4", "16", "64" })
+	int procs;
+
+	@Param({ "1", "4" })
+	int mems;
+
+	@Param({ "private", "shared", "stream" })
+	String workload;
+
+	@Param({ "false", "true" })
+	boolean skipIdle;
+
+	private static final int nbReqs = 256;
+	private static final int maxCycles = 100000000;
+
+	private static final long privateBase = 0x00400000;
+	private static final long sharedBase = 0x00800000;
+	private static final long streamBase = 0x00C00000;
+	private static final int nbSharedLines = 4;
+
+	private Topcell m_topcell;
+
+	/**
+	 * Number of cycles simulated, reported by JMH as a rate
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Cycles {
+		public long cycles;
+	}
+
+	@Setup(Level.Trial)
+	public void setupTrial() {
+		Trace.setLevel(Trace.Level.OFF);
+	}
+
+	@Setup(Level.Invocation)
+	public void setup() {
+		m_topcell = new TopcellBuilder().setNbProcs(procs).setNbMems(mems).setInterleave(0x1000).build();
+		m_topcell.setRetention(false);
+		int lineSize = 32;
+		for (int i = 0; i < procs; i++) {
+			Processor proc = m_topcell.getProcessor(i);
+			for (int j = 0; j < nbReqs / 2; j++) {
+				long addr;
+				if (workload.equals("private")) {
+					addr = privateBase + (long) i * 0x1000 + 4 * (j % 64);
+				}
+				else if (workload.equals("shared")) {
+					addr = sharedBase + (j % nbSharedLines) * lineSize + 4 * (i % 8);
+				}
+				else {
+					addr = streamBase + ((long) i * nbReqs + 2 * j) * lineSize;
+				}
+				if (workload.equals("stream")) {
+					proc.addRead(addr);
+					proc.addRead(addr + lineSize);
+				}
+				else {
+					proc.addWrite(addr, i + j);
+					proc.addRead(addr);
+				}
+			}
+		}
+	}
+
+	@Benchmark
+	public boolean simulate(Cycles counter) {
+		boolean finished = BatchSimul.run(m_topcell, maxCycles, skipIdle);
+		assert (finished);
+		counter.cycles += m_topcell.getNbCycles();
+		return finished;
+	}
+
+}
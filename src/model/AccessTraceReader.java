@@ -0,0 +1,127 @@
+package model;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a trace written by AccessTraceWriter one access at a time. The file is mapped in memory by windows of
+ * windowSize bytes, the next window being mapped when the current one is consumed, so that traces of any size
+ * are replayed without being loaded in the heap: only the pages of the current window are read by the system.
+ * next() decodes the following access, whose fields are then available through the getters, until the next call.
+ * @author QLM
+ */
+public class AccessTraceReader implements Closeable {
+
+	private static final int windowSize = 1 << 26;
+
+	private Path m_path;
+	private FileChannel m_file;
+	private long m_size;
+	// offset in the file of the first byte of m_window
+	private long m_window_offset;
+	private MappedByteBuffer m_window;
+
+	private boolean m_write;
+	private int m_gap;
+	private long m_address = 0;
+	private long m_data;
+
+	/**
+	 * @throws IOException if the file cannot be read or is not an access trace
+	 */
+	public AccessTraceReader(Path path) throws IOException {
+		m_path = path;
+		m_file = FileChannel.open(path, StandardOpenOption.READ);
+		m_size = m_file.size();
+		map(0);
+		if (m_window.remaining() < 5 || m_window.getInt() != AccessTraceWriter.magic) {
+			m_file.close();
+			throw new IOException(path + " is not an access trace");
+		}
+		int version = m_window.get();
+		if (version != AccessTraceWriter.version) {
+			m_file.close();
+			throw new IOException(path + ": unsupported access trace version " + version);
+		}
+	}
+
+	/**
+	 * Decodes the next access
+	 * @return false if the end of the trace is reached
+	 * @throws IOException if the file cannot be read or ends within a record
+	 */
+	public boolean next() throws IOException {
+		if (m_window.remaining() < AccessTraceWriter.maxRecordSize && m_window_offset + m_window.limit() < m_size) {
+			map(m_window_offset + m_window.position());
+		}
+		if (!m_window.hasRemaining()) {
+			return false;
+		}
+		try {
+			int op = m_window.get();
+			if (op != AccessTraceWriter.READ && op != AccessTraceWriter.WRITE) {
+				throw new IOException(m_path + ": corrupted access trace, unknown operation " + op);
+			}
+			m_write = op == AccessTraceWriter.WRITE;
+			m_gap = (int) getVarint();
+			m_address += TransactionTraceReader.unzigzag(getVarint());
+			m_data = m_write ? TransactionTraceReader.unzigzag(getVarint()) : 0;
+		}
+		catch (BufferUnderflowException e) {
+			throw new IOException(m_path + ": truncated access trace");
+		}
+		return true;
+	}
+
+	public boolean isWrite() {
+		return m_write;
+	}
+
+	/**
+	 * @return the minimum number of cycles between the issue of the previous access and the issue of the current one
+	 */
+	public int getGap() {
+		return m_gap;
+	}
+
+	public long getAddress() {
+		return m_address;
+	}
+
+	/**
+	 * @return the word written by the current access, 0 for a read
+	 */
+	public long getData() {
+		return m_data;
+	}
+
+	public void close() throws IOException {
+		m_file.close();
+	}
+
+	/**
+	 * Maps the window of the file starting at offset
+	 */
+	private void map(long offset) throws IOException {
+		m_window_offset = offset;
+		m_window = m_file.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(windowSize, m_size - offset));
+	}
+
+	private long getVarint() throws IOException {
+		long res = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = m_window.get();
+			res |= (long) (b & 0x7F) << shift;
+			if (b >= 0) {
+				return res;
+			}
+		}
+		throw new IOException(m_path + ": corrupted access trace, varint too long");
+	}
+
+}
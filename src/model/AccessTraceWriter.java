@@ -0,0 +1,93 @@
+package model;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes the memory accesses of a processor in a compact binary file, replayed by a Processor through an AccessTraceReader.
+ * The file starts with the magic number and the version of the format, followed by one record per access:
+ *  - a byte containing the operation: READ or WRITE
+ *  - the gap, i.e. the number of cycles between the issue of the previous access and the issue of this one
+ *    (between the start of the simulation and the issue of the first access)
+ *  - the address, as the signed difference with the address of the previous access
+ *  - for a write, the word written (signed)
+ * All the integers are varints (7 bits per byte, least significant first); signed ones are zigzag encoded.
+ * @author QLM
+ */
+public class AccessTraceWriter implements Closeable {
+
+	static final int magic = 0x43504154; // "CPAT"
+	static final int version = 1;
+
+	public static final int READ = 0;
+	public static final int WRITE = 1;
+
+	// maximum size of a record
+	static final int maxRecordSize = 1 + 3 * TransactionTraceWriter.maxVarintSize;
+
+	private static final int bufferSize = 1 << 16;
+
+	private FileChannel m_file;
+	private ByteBuffer m_buf = ByteBuffer.allocateDirect(bufferSize);
+	private long m_last_address = 0;
+	private long m_nb_records = 0;
+
+	public AccessTraceWriter(Path path) throws IOException {
+		m_file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		m_buf.putInt(magic);
+		m_buf.put((byte) version);
+	}
+
+	public void addRead(int gap, long address) throws IOException {
+		add(READ, gap, address, 0);
+	}
+
+	public void addWrite(int gap, long address, long data) throws IOException {
+		add(WRITE, gap, address, data);
+	}
+
+	private void add(int op, int gap, long address, long data) throws IOException {
+		assert (gap >= 0);
+		if (m_buf.remaining() < maxRecordSize) {
+			flush();
+		}
+		m_buf.put((byte) op);
+		TransactionTraceWriter.putVarint(m_buf, gap);
+		TransactionTraceWriter.putVarint(m_buf, TransactionTraceWriter.zigzag(address - m_last_address));
+		if (op == WRITE) {
+			TransactionTraceWriter.putVarint(m_buf, TransactionTraceWriter.zigzag(data));
+		}
+		m_last_address = address;
+		m_nb_records++;
+	}
+
+	/**
+	 * @return the number of accesses written
+	 */
+	public long getNbRecords() {
+		return m_nb_records;
+	}
+
+	/**
+	 * Writes the buffered records in the file
+	 */
+	public void flush() throws IOException {
+		m_buf.flip();
+		while (m_buf.hasRemaining()) {
+			m_file.write(m_buf);
+		}
+		m_buf.clear();
+	}
+
+	public void close() throws IOException {
+		if (m_file.isOpen()) {
+			flush();
+			m_file.close();
+		}
+	}
+
+}
@@ -0,0 +1,68 @@
+package model;
+
+/**
+ * Full bit-vector encoding of a list of copies: one bit per srcid of the range.
+ * The list is exact, and its size grows linearly with the number of caches.
+ */
+public class BitVectorCopiesList extends CopiesList {
+
+	public BitVectorCopiesList(int firstId, int nbIds) {
+		super(firstId, nbIds, nbIds);
+	}
+
+	public CopiesList newList() {
+		return new BitVectorCopiesList(m_first_id, m_nb_ids);
+	}
+
+	public int entryBits() {
+		return m_nb_ids;
+	}
+
+	public boolean isExact() {
+		return true;
+	}
+
+	void add(int cache_id) {
+		assert (inRange(cache_id));
+		int bit = cache_id - m_first_id;
+		m_bits[bit >>> 6] |= 1L << bit;
+	}
+
+	void remove(int cache_id) {
+		assert (inRange(cache_id));
+		int bit = cache_id - m_first_id;
+		m_bits[bit >>> 6] &= ~(1L << bit);
+	}
+
+	boolean hasCopy(int cache_id) {
+		if (!inRange(cache_id)) {
+			return false;
+		}
+		int bit = cache_id - m_first_id;
+		return (m_bits[bit >>> 6] & (1L << bit)) != 0;
+	}
+
+	boolean hasOtherCopy(int cache_id) {
+		int bit = cache_id - m_first_id;
+		for (int w = 0; w < m_bits.length; w++) {
+			long word = m_bits[w];
+			if (w == bit >> 6) {
+				word &= ~(1L << bit); // bit is not in this word if cache_id is out of range
+			}
+			if (word != 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	int nextOwner(int from) {
+		int bit = nextSetBit(Math.max(from - m_first_id, 0), m_nb_ids);
+		return bit == -1 ? -1 : m_first_id + bit;
+	}
+
+	int nbCopies() {
+		return bitCount();
+	}
+
+}
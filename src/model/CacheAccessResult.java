@@ -1,9 +1,9 @@
 package model;
 
-import java.util.List;
-
 /**
- * A class to aggregate the results of a cache access (from cache controller to cache)
+ * A class to aggregate the results of a cache access (from cache controller to cache).
+ * The object is owned by the cache controller and filled by the cache at each access; data
+ * contains the victim line only if victimDirty is true.
  * @author QLM
  *
  */
@@ -13,5 +13,9 @@ public class CacheAccessResult {
 	long victimAddress;
 	int victimWay;
 	boolean victimDirty;
-	List<Long> data;
+	long [] data;
+	
+	CacheAccessResult(int nwords) {
+		data = new long[nwords];
+	}
 }
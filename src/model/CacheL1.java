@@ -4,8 +4,6 @@ import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.ArrayList;
-import java.util.List;
 
 import model.LineState.cacheSlotState;
 
@@ -172,10 +170,10 @@ public class CacheL1 {
 	 *  - ZOMBIE : (matching tag) and (state == ZOMBIE)
 	 *  - MISS : no matching tag or EMPTY state
 	 *  @param ad The address to read
-	 *  @param dt The data read, updated by this function (should be an empty list)
+	 *  @param dt The data read, updated by this function: the word is written in dt[0] if VALID
 	 *  @return true if VALID or ZOMBIE, false otherwise
 	 */
-	boolean read(long ad, List<Long> dt, LineState state) {
+	boolean read(long ad, long [] dt, LineState state) {
 		long tag = m_z.get(ad);
 		long set = m_y.get(ad);
 		long word = m_x.get(ad);
@@ -183,7 +181,6 @@ public class CacheL1 {
 
 		// default return values
 		state.state = cacheSlotState.EMPTY;
-		dt.clear();
 
 		for (int way = 0; way < m_ways; way++) {
 			if (tag == tag(way, set)) {
@@ -191,7 +188,7 @@ public class CacheL1 {
 					state.state = cacheSlotState.VALID;
 					state.dirty = dirty(way, set);
 					state.exclu = exclu(way, set);
-					dt.add(data(way, set, word));
+					dt[0] = data(way, set, word);
 					setCacheLru(way, set);
 					return true;
 				}
@@ -295,18 +292,17 @@ public class CacheL1 {
 	 * - if there is none, we take the first not ZOMBIE slot.
 	 * - if there is none, returns an empty result
 	 * @param ad
-	 * @return
+	 * @param result The object to fill, whose data buffer contains at least one line
+	 * @return result
 	 */
-	CacheAccessResult readSelect(long ad) {
+	CacheAccessResult readSelect(long ad, CacheAccessResult result) {
 		long set = m_y.get(ad);
 
-		CacheAccessResult result = new CacheAccessResult();
 		result.found = false;
 		result.victimFound = false;
 		result.victimAddress = 0;
 		result.victimWay = 0;
 		result.victimDirty = false;
-		result.data = null;
 
 		// Search first empty slot
 		for (int way = 0; way < m_ways && !(result.found); way++) {
@@ -326,9 +322,8 @@ public class CacheL1 {
 				result.victimWay = way;
 				result.victimDirty = dirty(way, set);
 				if (result.victimDirty) {
-					result.data = new ArrayList<Long>();
 					for (int word = 0; word < m_words; word++) {
-						result.data.add(data(way, set, word));
+						result.data[word] = data(way, set, word);
 					}
 				}
 				return result;
@@ -344,9 +339,8 @@ public class CacheL1 {
 				result.victimWay = way;
 				result.victimDirty = dirty(way, set);
 				if (result.victimDirty) {
-					result.data = new ArrayList<Long>();
 					for (int word = 0; word < m_words; word++) {
-						result.data.add(data(way, set, word));
+						result.data[word] = data(way, set, word);
 					}
 				}
 				return result;
@@ -360,12 +354,12 @@ public class CacheL1 {
 	/**
 	 * Finds a way and updates the cache with a line copy. The data part and directory are accessed.
 	 * @param ad The address of the line
-	 * @param buf A list containing the values of the words of the line
+	 * @param buf An array containing the values of the words of the line
 	 * @param exclu true if the line is in exclusive state, false otherwise
 	 * Note: when the ZOMBIE state is used, the methods readSelect and writeLineAtWay should be used
 	 * instead so as to guarantee that one line is not in ZOMBIE state.
 	 */
-	void writeLine(long ad, List<Long> buf, boolean exclu) {
+	void writeLine(long ad, long [] buf, boolean exclu) {
 		long set = m_y.get(ad);
 		long tag = m_z.get(ad);
 
@@ -378,7 +372,7 @@ public class CacheL1 {
 				setCacheLru(way, set);
 
 				for (int _word = 0; _word < m_words; _word++) {
-					setData(way, set, _word, buf.get(_word));
+					setData(way, set, _word, buf[_word]);
 				}
 				return;
 			}
@@ -394,7 +388,7 @@ public class CacheL1 {
 				setCacheLru(way, set);
 
 				for (int _word = 0; _word < m_words; _word++) {
-					setData(way, set, _word, buf.get(_word));
+					setData(way, set, _word, buf[_word]);
 				}
 				return;
 			}
@@ -406,10 +400,10 @@ public class CacheL1 {
 	 * Updates the cache with a line copy at a specified way. This way should come
 	 * from the readSelect method. The data part and directory are accessed.
 	 * @param ad The address of the line
-	 * @param buf A list containing the values of the words of the line
+	 * @param buf An array containing the values of the words of the line
 	 * @param exclu true if the line is in exclusive state, false otherwise
 	 */
-	void writeLineAtWay(long ad, List<Long> buf, boolean exclu, int way) {
+	void writeLineAtWay(long ad, long [] buf, boolean exclu, int way) {
 		long set = m_y.get(ad);
 		long tag = m_z.get(ad);
 
@@ -420,7 +414,7 @@ public class CacheL1 {
 		setCacheLru(way, set);
 
 		for (int _word = 0; _word < m_words; _word++) {
-			setData(way, set, _word, buf.get(_word));
+			setData(way, set, _word, buf[_word]);
 		}
 		return;
 	}
@@ -433,19 +427,18 @@ public class CacheL1 {
 	 *  - read only: the line can't be written anymore but can still be read (full_inval = false)
 	 * In case the line is dirty, it must be written back to memory; the new values are sent in the
 	 * invalidation response.
+	 * @param result The object to fill, whose data buffer contains at least one line
+	 * @return result
 	 */
-	CacheAccessResult inval(long ad, boolean full_inval) {
+	CacheAccessResult inval(long ad, boolean full_inval, CacheAccessResult result) {
 
 		long tag = m_z.get(ad);
 		long set = m_y.get(ad);
 
-		CacheAccessResult result = new CacheAccessResult();
-
 		result.victimFound = false;
 		result.victimAddress = 0;
 		result.victimWay = 0;
 		result.victimDirty = false;
-		result.data = null;
 
 		for (int way = 0; way < m_ways; way++) {
 			if (tag == tag(way, set) && state(way, set) == cacheSlotState.VALID) {
@@ -454,9 +447,8 @@ public class CacheL1 {
 				result.victimWay = way;
 				result.victimDirty = dirty(way, set);
 				if (result.victimDirty) {
-					result.data = new ArrayList<Long>();
 					for (int word = 0; word < m_words; word++) {
-						result.data.add(data(way, set, word));
+						result.data[word] = data(way, set, word);
 					}
 				}
 				if (full_inval) {
@@ -1,9 +1,12 @@
 package model;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.SplittableRandom;
 import java.util.Vector;
 
 /**
@@ -16,7 +19,10 @@ import java.util.Vector;
  * the graphical representation.
  * 
  * A channel has a 1-to-N topology: requests are serialized when pushed back (different writers can share the same channel),
- * and then when the request delay has passed, requests are routed towards the good output "route". This routing is made via
+ * and then when the request delay has passed, requests are routed towards the good output "route". Since requests leave the
+ * channel in order, the cycle at which a request is delivered is computed once when it is pushed (it cannot be earlier than
+ * the delivery of the previous request); in-flight requests are thus not visited each cycle, and a cycle only costs the
+ * requests delivered during it. This routing is made via
  * two Maps:
  *  - m_tgtid2module in case of tgtid routing (resp. m_seg2module in case of address routing) whose keys are target_id found
  *    in the request (resp. segment containing the address of the request) and values the modules connected.
@@ -24,6 +30,7 @@ import java.util.Vector;
  *    and are managed internally
  * Modules try to read from a channel by passing themselves as an argument; therefore, each module must register itself to the
  * channels associated to its input ports. This registration is made via the method AddTgtidTranslation (or AddAddrTranslation)
+ * A request routed by tgtid can also be multicast: the channel then replicates it to each target (see multicast()).
  * @author QLM
  */
 public class Channel {
@@ -35,12 +42,33 @@ public class Channel {
 	
 	private Map<Long, Module> m_tgtid2module = null;
 	private Map<Segment, Module> m_seg2module = null;
+	
+	/**
+	 * Address decoding in case of address routing: m_segments is the list of the segments of all the outputs,
+	 * decoded by m_seg_table, and m_seg2chanIdx the channel index of the output owning each segment
+	 */
+	private List<Segment> m_segments = null;
+	private SegmentTable m_seg_table = null;
+	private int [] m_seg2chanIdx = null;
 
 	private Map<Module, Integer> m_module2chanIdx = null;
 	
-	private List<Request> m_reqs_in;
-	private Vector<List<Request>> m_reqs_out;
+	private Deque<Request> m_reqs_in;
+	private Vector<Deque<Request>> m_reqs_out;
+	private int m_last_pop_cycle = 0;
+	
+	/**
+	 * Delay model of the requests, and random generator from which the delays are drawn, seeded by default from
+	 * the name of the channel so that simulations are reproducible
+	 */
+	private LatencyModel m_latency = new UniformLatency();
+	private SplittableRandom m_rng;
 	private List<Request> m_finished_reqs;
+	// if false, the requests leaving the channel are not kept in m_finished_reqs and can be recycled
+	private boolean m_retention = true;
+	// if not null, the requests leaving the channel are recorded in this trace, in the stream m_trace_stream
+	private TransactionTraceWriter m_trace = null;
+	private int m_trace_stream;
 
 	/**
 	 * @param name : name of the channel
@@ -49,21 +77,25 @@ public class Channel {
 	 *                         if false, it is made by the tgtid
 	 */
 	public Channel(String name, int nbOutputs, boolean addressRouting, List<Request> finishedReq) {
-		m_reqs_in = new ArrayList<Request>();
-		m_reqs_out = new Vector<List<Request>>();
+		m_reqs_in = new ArrayDeque<Request>();
+		m_reqs_out = new Vector<Deque<Request>>();
 		m_finished_reqs = finishedReq;
 		m_name = name;
 		m_address_routing = addressRouting;
+		m_rng = new SplittableRandom(name.hashCode());
 		m_module2chanIdx = new HashMap<Module, Integer>();
 		if (m_address_routing) {
 			m_seg2module = new HashMap<Segment, Module>();
+			m_segments = new ArrayList<Segment>();
+			m_seg_table = new SegmentTable(m_segments);
+			m_seg2chanIdx = new int[0];
 		}
 		else {
 			m_tgtid2module = new HashMap<Long, Module>();
 		}
 		
 		for (int i = 0; i < nbOutputs; i++) {
-			m_reqs_out.add(new ArrayList<Request>());
+			m_reqs_out.add(new ArrayDeque<Request>());
 		}
 	}
 	
@@ -82,8 +114,9 @@ public class Channel {
 	/**
 	 * Adds the translation between the Module m and a segment list
 	 * This method must be called only for channels routing by address
-	 * @param tgtid : target id or srcid of the module
+	 * @param seglist : segments owned by the module
 	 * @param m : The module
+	 * @throws IllegalArgumentException if a segment overlaps a segment already routed by the channel
 	 */
 	public void addAddrTranslation(List<Segment> seglist, Module m) {
 		assert(m_address_routing);
@@ -91,37 +124,60 @@ public class Channel {
 			m_seg2module.put(seg, m);
 		}
 		m_module2chanIdx.put(m, m_module2chanIdx.size());
+
+		// The decoding table is immutable, it is rebuilt with the new segments
+		List<Segment> segments = new ArrayList<Segment>(m_segments);
+		segments.addAll(seglist);
+		SegmentTable table = new SegmentTable(segments);
+		int [] seg2chanIdx = new int[segments.size()];
+		for (int i = 0; i < segments.size(); i++) {
+			seg2chanIdx[i] = m_module2chanIdx.get(m_seg2module.get(segments.get(i)));
+		}
+		m_segments = segments;
+		m_seg_table = table;
+		m_seg2chanIdx = seg2chanIdx;
 	}
 	
 
 	public void simulate1Cycle() {
-		for (Request req : m_reqs_in) {
-			req.simulate1Cycle();
-		}
-
-		while (!m_reqs_in.isEmpty() && m_reqs_in.get(0).toPop()) {
+		while (!m_reqs_in.isEmpty() && m_reqs_in.peekFirst().r_pop_cycle <= m_cycle) {
+			Request req = m_reqs_in.pollFirst();
 			if (m_address_routing) {
-				int idx = -1;
-				for (Segment seg : m_seg2module.keySet()) {
-					if (seg.contains(m_reqs_in.get(0).getAddress())) {
-						Module m = m_seg2module.get(seg);
-						idx = m_module2chanIdx.get(m);
-						break;
-					}
-				}
-				assert(idx != -1);
-				m_reqs_out.get(idx).add(m_reqs_in.get(0));
+				int seg = m_seg_table.find(req.getAddress());
+				assert(seg != -1);
+				m_reqs_out.get(m_seg2chanIdx[seg]).add(req);
 			}
 			else {
-				Module m = m_tgtid2module.get((long) m_reqs_in.get(0).getTgtid());
+				Module m = m_tgtid2module.get((long) req.getTgtid());
 				int idx = m_module2chanIdx.get(m);
-				m_reqs_out.get(idx).add(m_reqs_in.get(0));
+				m_reqs_out.get(idx).add(req);
 			}
-			m_reqs_in.remove(0);
 		}
 		m_cycle++;
 	}
 
+	/**
+	 * @return the first cycle at which a request will be delivered to one of the outputs of the channel, i.e.
+	 *         the cycle at which the request at the head of the channel is popped; Integer.MAX_VALUE if the
+	 *         channel is empty
+	 */
+	public int nextEventCycle() {
+		if (m_reqs_in.isEmpty()) {
+			return Integer.MAX_VALUE;
+		}
+		return Math.max(m_cycle, m_reqs_in.peekFirst().r_pop_cycle);
+	}
+
+
+	/**
+	 * Advances the channel by n cycles, all before nextEventCycle()
+	 * @param n
+	 */
+	public void skipCycles(int n) {
+		m_cycle += n;
+	}
+
+
 	/**
 	 * Adds a request at the back of the channel
 	 * If the channels routes by address, updates the tgtid field
@@ -132,9 +188,130 @@ public class Channel {
 		if (m_address_routing) {
 			updateTgtid(req);
 		}
+		ChannelWriteBuffer buf = ChannelWriteBuffer.current();
+		if (buf != null) {
+			buf.stagePush(this, req);
+		}
+		else {
+			enqueue(req);
+		}
+	}
+
+
+	/**
+	 * Sends a request to all the caches of targets during the current cycle: the channel replicates it, each copy being
+	 * allocated from the pool of the sender and drawing its own delay, then gives the request back to the pool.
+	 * Only for the channels routing by tgtid.
+	 * @param req : request to replicate, whose tgtid is ignored
+	 * @param targets : srcids of the caches
+	 * @param pool : pool of the sender
+	 */
+	void multicast(Request req, CopiesList targets, RequestPool pool) {
+		assert (!m_address_routing);
+		for (int id = targets.getNextOwner(); id != -1; id = targets.nextOwner(id + 1)) {
+			pushBack(pool.alloc(req.getAddress(), req.getSrcid(), id, req.getCmd(), req.getCycle(), req.getMaxDelay(), req.getData(), req.getBe()));
+		}
+		pool.release(req);
+	}
+
+
+	/**
+	 * Adds a request staged during the evaluation phase of a parallel cycle
+	 * @param req
+	 */
+	void commitPush(Request req) {
+		enqueue(req);
+	}
+
+
+	/**
+	 * Sets the delay model of the requests pushed from now on
+	 * @param latency
+	 */
+	public void setLatencyModel(LatencyModel latency) {
+		m_latency = latency;
+	}
+
+
+	/**
+	 * Sets the random generator from which the delays are drawn
+	 * @param rng
+	 */
+	public void setRandom(SplittableRandom rng) {
+		m_rng = rng;
+	}
+
+
+	/**
+	 * Draws the delay of the request, computes the cycle at which it leaves the channel and adds it to the
+	 * in-flight requests. The request is sent at cycle r_cycle and spends the cycles until r_end_cycle in the
+	 * channel, the last one included; it cannot leave before the requests pushed before it.
+	 * This method is called in the same order with the sequential and the parallel kernels, so that the delays are the same.
+	 * @param req
+	 */
+	private void enqueue(Request req) {
+		req.setDelay(m_latency.delay(req.getMaxDelay(), m_rng));
+		int pop_cycle = m_cycle + Math.max(0, req.getEndCycle() - req.getCycle() - 1);
+		req.r_pop_cycle = Math.max(pop_cycle, m_last_pop_cycle);
+		m_last_pop_cycle = req.r_pop_cycle;
 		m_reqs_in.add(req);
 	}
 
+
+	/**
+	 * Keeps the requests leaving the channel in the finished requests list (default), as needed by the
+	 * chronogram, or not, in which case the modules can recycle them
+	 * @param retention
+	 */
+	public void setRetention(boolean retention) {
+		m_retention = retention;
+	}
+
+
+	/**
+	 * Records the requests leaving the channel in a binary trace
+	 * @param trace : the trace, or null to stop recording
+	 * @param stream : TransactionTraceWriter.CACHE or TransactionTraceWriter.PROC
+	 */
+	public void setTraceWriter(TransactionTraceWriter trace, int stream) {
+		m_trace = trace;
+		m_trace_stream = stream;
+	}
+
+
+	/**
+	 * Marks the request as finished, records it in the trace if any, and adds it to the finished requests list, or stages the record
+	 * and the addition during the evaluation phase of a parallel cycle since the trace and this list are shared between channels
+	 * @param req
+	 */
+	private void addFinished(Request req) {
+		req.addToFinishedReqs(m_cycle);
+		ChannelWriteBuffer buf = ChannelWriteBuffer.current();
+		if (m_trace != null) {
+			if (buf != null) {
+				buf.stageRecord(m_trace, m_trace_stream, req);
+			}
+			else {
+				m_trace.record(req, m_trace_stream);
+			}
+		}
+		if (!m_retention) {
+			return;
+		}
+		req.r_retained = true;
+		if (buf != null) {
+			buf.stageFinished(this, req);
+		}
+		else {
+			m_finished_reqs.add(req);
+		}
+	}
+
+
+	void commitFinished(Request req) {
+		m_finished_reqs.add(req);
+	}
+
 	
 	/**
 	 * Updates the tgtid field of a request, i.e. the targetid of the memory controller
@@ -144,11 +321,9 @@ public class Channel {
 	private void updateTgtid(Request req) {
 		assert(req.getTgtid() == -1);
 		int tgtid = -1;
-		for (Segment seg : m_seg2module.keySet()) {
-			if (seg.contains(req.getAddress())) {
-				tgtid = seg.getTgtid();
-				break;
-			}
+		int seg = m_seg_table.find(req.getAddress());
+		if (seg != -1) {
+			tgtid = m_segments.get(seg).getTgtid();
 		}
 		req.updateTgtid(tgtid);
 	}
@@ -160,12 +335,10 @@ public class Channel {
 	 */
 	void popFront(Module m) {
 		int numOutput = m_module2chanIdx.get(m);
-		Request req = m_reqs_out.get(numOutput).get(0);
+		Request req = m_reqs_out.get(numOutput).pollFirst();
 		if (!req.addedToFinishedReqs) {
-			req.addToFinishedReqs(m_cycle);
-			m_finished_reqs.add(req);
+			addFinished(req);
 		}
-		m_reqs_out.get(numOutput).remove(0);
 	}
 	
 
@@ -175,7 +348,7 @@ public class Channel {
 	 */
 	Request front(Module m) {
 		int numOutput = m_module2chanIdx.get(m);
-		return m_reqs_out.get(numOutput).get(0);
+		return m_reqs_out.get(numOutput).peekFirst();
 	}
 
 	
@@ -191,10 +364,9 @@ public class Channel {
 	
 	public void addToFinishedReqs(Module m) {
 		int numOutput = m_module2chanIdx.get(m);
-		Request req = m_reqs_out.get(numOutput).get(0);
+		Request req = m_reqs_out.get(numOutput).peekFirst();
 		if (!req.addedToFinishedReqs) {
-			req.addToFinishedReqs(m_cycle);
-			m_finished_reqs.add(req);
+			addFinished(req);
 		}
 	}
 
@@ -0,0 +1,88 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes made by a module on the channels during the evaluation phase of a parallel cycle.
+ * While a buffer is installed on the current thread, Channel.pushBack, the updates of the
+ * finished requests lists and the records of the transaction traces are recorded instead of being
+ * applied; they are replayed by commit(), module after module in the sequential order, so that the
+ * channels and the traces end up exactly as with the sequential simulation.
+ */
+class ChannelWriteBuffer {
+
+	private static final ThreadLocal<ChannelWriteBuffer> current = new ThreadLocal<ChannelWriteBuffer>();
+
+	private List<Channel> m_channels = new ArrayList<Channel>();
+	private List<Request> m_reqs = new ArrayList<Request>();
+	// true if the write is a push in the channel, false if it is an addition to its finished requests list
+	private List<Boolean> m_is_push = new ArrayList<Boolean>();
+
+	// records of the transaction traces, each one with a copy of its request since the request can be recycled
+	// by its module before the commit; the copies are reused from cycle to cycle
+	private List<TransactionTraceWriter> m_traces = new ArrayList<TransactionTraceWriter>();
+	private List<Integer> m_streams = new ArrayList<Integer>();
+	private List<Request> m_records = new ArrayList<Request>();
+	private int m_nb_records = 0;
+
+	/**
+	 * @return the buffer installed on the current thread, null if the writes must be applied directly
+	 */
+	static ChannelWriteBuffer current() {
+		return current.get();
+	}
+
+	void install() {
+		current.set(this);
+	}
+
+	void uninstall() {
+		current.remove();
+	}
+
+	void stagePush(Channel c, Request req) {
+		m_channels.add(c);
+		m_reqs.add(req);
+		m_is_push.add(true);
+	}
+
+	void stageFinished(Channel c, Request req) {
+		m_channels.add(c);
+		m_reqs.add(req);
+		m_is_push.add(false);
+	}
+
+	void stageRecord(TransactionTraceWriter trace, int stream, Request req) {
+		if (m_nb_records == m_records.size()) {
+			m_records.add(new Request());
+		}
+		m_records.get(m_nb_records++).copy(req);
+		m_traces.add(trace);
+		m_streams.add(stream);
+	}
+
+	/**
+	 * Applies the recorded writes in their order, then empties the buffer
+	 */
+	void commit() {
+		for (int i = 0; i < m_reqs.size(); i++) {
+			if (m_is_push.get(i)) {
+				m_channels.get(i).commitPush(m_reqs.get(i));
+			}
+			else {
+				m_channels.get(i).commitFinished(m_reqs.get(i));
+			}
+		}
+		for (int i = 0; i < m_nb_records; i++) {
+			m_traces.get(i).record(m_records.get(i), m_streams.get(i));
+		}
+		m_channels.clear();
+		m_reqs.clear();
+		m_is_push.clear();
+		m_traces.clear();
+		m_streams.clear();
+		m_nb_records = 0;
+	}
+
+}
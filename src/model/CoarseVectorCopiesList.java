@@ -0,0 +1,77 @@
+package model;
+
+/**
+ * Coarse-vector encoding of a list of copies: one bit per group of groupSize consecutive srcids.
+ * A group belongs to the list as soon as one of its caches has been added, and caches cannot
+ * be removed individually unless groupSize is 1.
+ */
+public class CoarseVectorCopiesList extends CopiesList {
+
+	private final int m_group_size;
+
+	public CoarseVectorCopiesList(int firstId, int nbIds, int groupSize) {
+		super(firstId, nbIds, (nbIds + groupSize - 1) / groupSize);
+		assert (groupSize > 0);
+		m_group_size = groupSize;
+	}
+
+	public CopiesList newList() {
+		return new CoarseVectorCopiesList(m_first_id, m_nb_ids, m_group_size);
+	}
+
+	public int entryBits() {
+		return (m_nb_ids + m_group_size - 1) / m_group_size;
+	}
+
+	public boolean isExact() {
+		return m_group_size == 1;
+	}
+
+	private boolean hasGroup(int group) {
+		return (m_bits[group >>> 6] & (1L << group)) != 0;
+	}
+
+	void add(int cache_id) {
+		assert (inRange(cache_id));
+		int group = (cache_id - m_first_id) / m_group_size;
+		m_bits[group >>> 6] |= 1L << group;
+	}
+
+	void remove(int cache_id) {
+		assert (inRange(cache_id));
+		if (m_group_size == 1) {
+			int group = cache_id - m_first_id;
+			m_bits[group >>> 6] &= ~(1L << group);
+		}
+	}
+
+	boolean hasCopy(int cache_id) {
+		if (!inRange(cache_id)) {
+			return false;
+		}
+		return hasGroup((cache_id - m_first_id) / m_group_size);
+	}
+
+	int nextOwner(int from) {
+		int bit = Math.max(from - m_first_id, 0);
+		if (bit >= m_nb_ids) {
+			return -1;
+		}
+		int group = bit / m_group_size;
+		int next = nextSetBit(group, entryBits());
+		if (next == -1) {
+			return -1;
+		}
+		return m_first_id + (next == group ? bit : next * m_group_size);
+	}
+
+	int nbCopies() {
+		int nbGroups = entryBits();
+		int res = bitCount() * m_group_size;
+		if (hasGroup(nbGroups - 1)) {
+			res -= nbGroups * m_group_size - m_nb_ids; // last group incomplete
+		}
+		return res;
+	}
+
+}
@@ -1,74 +1,226 @@
 package model;
 
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
 /**
- * Implementation an explicit list of copies.
- * Only made to look more real than using a hashset...
+ * List of the caches owning a copy of a line, identified by their srcid.
+ * The srcids that can be recorded range from firstId to firstId + nbIds - 1.
+ * The list is encoded in a field of entryBits() bits, stored in 64-bit words so that the memory
+ * directory can keep it in a SparseMemory. The subclasses implement the different encodings:
+ * the bit-vector is exact, while the limited-pointer and coarse-vector encodings may contain
+ * caches which do not own a copy (the list is then a superset of the real owners). In this case,
+ * all the caches of the range must exist and answer the invalidations for lines they do not own.
  * @author QLM
  */
-public class CopiesList {
-	
-	private int laListe;
-	
-	public CopiesList() {
-		laListe = 0;
-	}
-	
-	public CopiesList(CopiesList cl) {
-		this.laListe = cl.laListe;
+public abstract class CopiesList {
+
+	protected final int m_first_id;
+	protected final int m_nb_ids;
+	protected final long [] m_bits;
+
+	protected CopiesList(int firstId, int nbIds, int entryBits) {
+		assert (nbIds > 0);
+		m_first_id = firstId;
+		m_nb_ids = nbIds;
+		m_bits = new long[(entryBits + 63) >>> 6];
 	}
 
-	void add(int cache_id) {
+	/**
+	 * @return an empty list with the same encoding and range of srcids
+	 */
+	public abstract CopiesList newList();
+
+	/**
+	 * @return the number of bits of the encoding
+	 */
+	public abstract int entryBits();
+
+	/**
+	 * @return true if the list contains exactly the caches added, false if it can contain other caches
+	 */
+	public abstract boolean isExact();
+
+	abstract void add(int cache_id);
 
-		assert (cache_id < 32);
-		laListe = laListe | (1 << cache_id);
+	/**
+	 * Removes the cache cache_id from the list; an inexact encoding may keep it
+	 * @param cache_id
+	 */
+	abstract void remove(int cache_id);
+
+	abstract boolean hasCopy(int cache_id);
+
+	/**
+	 * @param from
+	 * @return the smallest srcid greater or equal to from which belongs to the list, -1 if none
+	 */
+	abstract int nextOwner(int from);
+
+	void removeAll() {
+		for (int i = 0; i < m_bits.length; i++) {
+			m_bits[i] = 0;
+		}
 	}
 
 	boolean hasOtherCopy(int cache_id) {
-		for (int i = 0; i < 32; i++) {
-			if ((laListe & (1 << i)) != 0 && i != cache_id) {
-				return true;
-			}
+		int owner = nextOwner(m_first_id);
+		if (owner == cache_id) {
+			owner = nextOwner(cache_id + 1);
 		}
-		return false;
+		return owner != -1;
 	}
 
-	void remove(int cache_id) {
-		assert (cache_id < 32);
-		laListe = laListe & (~(1 << cache_id));
+	int getNextOwner() {
+		return nextOwner(m_first_id);
 	}
 
-	void removeAll() {
-		laListe = 0;
+	int nbCopies() {
+		int res = 0;
+		for (int id = nextOwner(m_first_id); id != -1; id = nextOwner(id + 1)) {
+			res++;
+		}
+		return res;
 	}
 
-	int getNextOwner() {
-		for (int i = 0; i < 32; i++) {
-			if ((laListe & (1 << i)) != 0) {
-				return i;
+	/**
+	 * Iterates over the srcids of the list in increasing order, each step costing a call to nextOwner().
+	 * The list must not be modified during the iteration.
+	 * @return an iterator over the srcids of the list
+	 */
+	public PrimitiveIterator.OfInt sharers() {
+		return new PrimitiveIterator.OfInt() {
+			private int m_next = nextOwner(m_first_id);
+
+			public boolean hasNext() {
+				return m_next != -1;
+			}
+
+			public int nextInt() {
+				if (m_next == -1) {
+					throw new NoSuchElementException();
+				}
+				int res = m_next;
+				m_next = nextOwner(res + 1);
+				return res;
+			}
+		};
+	}
+
+	public int getFirstId() {
+		return m_first_id;
+	}
+
+	public int getNbIds() {
+		return m_nb_ids;
+	}
+
+
+	protected boolean inRange(int cache_id) {
+		return cache_id >= m_first_id && cache_id < m_first_id + m_nb_ids;
+	}
+
+	/**
+	 * @param bit
+	 * @param nbBits Number of bits used in m_bits
+	 * @return the position of the first bit set in m_bits from position bit, -1 if none
+	 */
+	protected int nextSetBit(int bit, int nbBits) {
+		if (bit >= nbBits) {
+			return -1;
+		}
+		int w = bit >>> 6;
+		long word = m_bits[w] & (-1L << bit);
+		while (word == 0) {
+			if (++w == m_bits.length) {
+				return -1;
 			}
+			word = m_bits[w];
 		}
-		return -1;
+		return (w << 6) + Long.numberOfTrailingZeros(word);
 	}
 
-	int nbCopies() {
-		int i;
+	/**
+	 * @return the number of bits set in m_bits
+	 */
+	protected int bitCount() {
 		int res = 0;
-		long l = laListe;
-		for (i = 0; i < 32; i++) {
-			if ((l & 1) != 0) {
-				res++;
-			}
-			l = l >> 1;
+		for (int w = 0; w < m_bits.length; w++) {
+			res += Long.bitCount(m_bits[w]);
 		}
 		return res;
 	}
 
-	boolean hasCopy(int id) {
-		return (laListe & (1 << id)) != 0;
+	/**
+	 * @param pos Position of the first bit of the field
+	 * @param width Number of bits of the field, less than 64
+	 * @return the value of the field
+	 */
+	protected long getField(int pos, int width) {
+		int w = pos >>> 6;
+		int b = pos & 63;
+		long res = m_bits[w] >>> b;
+		if (b + width > 64) {
+			res |= m_bits[w + 1] << (64 - b);
+		}
+		return res & ((1L << width) - 1);
+	}
+
+	/**
+	 * Writes val in the field of width bits starting at position pos
+	 */
+	protected void setField(int pos, int width, long val) {
+		int w = pos >>> 6;
+		int b = pos & 63;
+		long mask = (1L << width) - 1;
+		val &= mask;
+		m_bits[w] = (m_bits[w] & ~(mask << b)) | (val << b);
+		if (b + width > 64) {
+			int shift = 64 - b;
+			m_bits[w + 1] = (m_bits[w + 1] & ~(mask >>> shift)) | (val >>> shift);
+		}
+	}
+
+	/**
+	 * @return the mask of the bits used by the encoding in the word w
+	 */
+	private long wordMask(int w) {
+		int bits = entryBits() - (w << 6);
+		return bits >= 64 ? -1L : (1L << bits) - 1;
 	}
-	
+
+	/**
+	 * Reads the list from the words of mem starting at index; the bits following the encoding in the last word are ignored
+	 */
+	void load(SparseMemory mem, int index) {
+		for (int w = 0; w < m_bits.length; w++) {
+			m_bits[w] = mem.get(index + w) & wordMask(w);
+		}
+	}
+
+	/**
+	 * Writes the list into the words of mem starting at index; the bits following the encoding in the last word are kept
+	 */
+	void store(SparseMemory mem, int index) {
+		for (int w = 0; w < m_bits.length; w++) {
+			long mask = wordMask(w);
+			mem.set(index + w, (mem.get(index + w) & ~mask) | m_bits[w]);
+		}
+	}
+
+	/**
+	 * Copies the list cl, which must have the same encoding and range of srcids
+	 */
+	void copy(CopiesList cl) {
+		assert (cl.getClass() == getClass() && cl.m_first_id == m_first_id && cl.m_nb_ids == m_nb_ids);
+		System.arraycopy(cl.m_bits, 0, m_bits, 0, m_bits.length);
+	}
+
 	public String toString() {
-		String res = "0x" + Integer.toHexString(laListe);
+		String res = "0x";
+		for (int w = m_bits.length - 1; w >= 0; w--) {
+			res += (w == m_bits.length - 1) ? Long.toHexString(m_bits[w]) : String.format("%016x", m_bits[w]);
+		}
 		return res;
 	}
 
@@ -0,0 +1,302 @@
+package model;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+import model.Request.cmd_t;
+
+/**
+ * Timing model of a banked DRAM, placed by a memory controller in front of its Ram: the data are still read and written
+ * in the Ram by the controller, which gives the DRAM the accesses to time, and sends the response of an access only when
+ * the DRAM has completed it.
+ * The memory is divided in rows of rowSize bytes, the consecutive rows being in consecutive banks. Each bank has a row
+ * buffer: an access to the row open in its bank (row hit) costs tCAS cycles, an access to a bank without open row costs
+ * tRCD + tCAS cycles, and an access to another row (row conflict) costs tRP + tRCD + tCAS cycles. The line is then
+ * transferred on the data bus, shared by all the banks, in tBurst cycles. With the open page policy, the row stays open
+ * after an access, and the row hits of a bank are pipelined (one every tBurst cycles), while another row can only be
+ * opened once the last transfer of the bank is over; with the closed page policy, the row is precharged right after
+ * the transfer (tRP cycles).
+ * The accesses wait in a queue of queueSize entries, from which the FR-FCFS scheduler issues at most one access per cycle:
+ * the oldest row hit whose bank is ready, or else the oldest access whose bank is ready. An access is never issued
+ * before an older access to the same line, so that the accesses to a line complete in order.
+ * The accesses without response (posted writes, such as write-backs) also take an entry of the queue, so that the
+ * controller stalls all its accesses while the queue is full.
+ * @author QLM
+ */
+public class Dram {
+
+	public enum PagePolicy {
+		OPEN,
+		CLOSED,
+	}
+
+	private static class Access {
+		// address of the request, given back in the response
+		private long m_addr;
+		private long m_line;
+		private int m_bank;
+		private long m_row;
+		private int m_done_cycle;
+		private int m_tgtid;
+		// response sent when the access is completed, NOP for a posted write
+		private cmd_t m_rsp_cmd;
+		private long [] m_data;
+		private boolean m_has_data;
+	}
+
+	private int m_nb_banks;
+	private int m_row_size;
+	private int m_line_size;
+	private int m_trcd;
+	private int m_tcas;
+	private int m_trp;
+	private int m_tburst;
+	private PagePolicy m_policy;
+	private int m_queue_size;
+
+	// row open in each bank, -1 if none
+	private long [] r_open_row;
+	// first cycle at which each bank can start an access opening a row
+	private int [] r_bank_ready;
+	// first cycle at which each bank can start a row hit
+	private int [] r_bank_hit_ready;
+	// first cycle at which the data bus is free
+	private int r_bus_free = 0;
+
+	// accesses not issued yet, oldest first
+	private ArrayList<Access> m_queue = new ArrayList<Access>();
+	// accesses issued, in the order of their completion since the data bus is shared
+	private ArrayDeque<Access> m_in_flight = new ArrayDeque<Access>();
+	private ArrayDeque<Access> m_free = new ArrayDeque<Access>();
+
+	private long m_nb_row_hits = 0;
+	private long m_nb_row_misses = 0;
+	private long m_nb_row_conflicts = 0;
+
+	/**
+	 * @param rowSize : size of a row in bytes, a multiple of the line size
+	 * @param nwords : number of words of a line
+	 */
+	public Dram(int nbBanks, int rowSize, int tRCD, int tCAS, int tRP, int tBurst, PagePolicy policy, int queueSize, int nwords) {
+		assert (nbBanks > 0 && rowSize % (4 * nwords) == 0 && tBurst > 0 && queueSize > 0);
+		m_nb_banks = nbBanks;
+		m_row_size = rowSize;
+		m_line_size = 4 * nwords;
+		m_trcd = tRCD;
+		m_tcas = tCAS;
+		m_trp = tRP;
+		m_tburst = tBurst;
+		m_policy = policy;
+		m_queue_size = queueSize;
+		r_open_row = new long[nbBanks];
+		r_bank_ready = new int[nbBanks];
+		r_bank_hit_ready = new int[nbBanks];
+		for (int i = 0; i < nbBanks; i++) {
+			r_open_row[i] = -1;
+		}
+	}
+
+	/**
+	 * @return true if no access can be added
+	 */
+	public boolean isFull() {
+		return m_queue.size() >= m_queue_size;
+	}
+
+	/**
+	 * Adds the read of a line, whose response will carry a copy of data
+	 */
+	void read(long addr, int tgtid, cmd_t rspCmd, long [] data) {
+		Access a = add(addr, tgtid, rspCmd);
+		if (a.m_data == null || a.m_data.length != data.length) {
+			a.m_data = new long[data.length];
+		}
+		System.arraycopy(data, 0, a.m_data, 0, data.length);
+		a.m_has_data = true;
+	}
+
+	/**
+	 * Adds a write in the line of addr; rspCmd is NOP for a posted write, without response
+	 */
+	void write(long addr, int tgtid, cmd_t rspCmd) {
+		add(addr, tgtid, rspCmd);
+	}
+
+	private Access add(long addr, int tgtid, cmd_t rspCmd) {
+		assert (!isFull());
+		Access a = m_free.pollFirst();
+		if (a == null) {
+			a = new Access();
+		}
+		a.m_addr = addr;
+		a.m_line = addr & ~((long) m_line_size - 1);
+		long rowIndex = addr / m_row_size;
+		a.m_bank = (int) (rowIndex % m_nb_banks);
+		a.m_row = rowIndex / m_nb_banks;
+		a.m_tgtid = tgtid;
+		a.m_rsp_cmd = rspCmd;
+		a.m_has_data = false;
+		m_queue.add(a);
+		return a;
+	}
+
+	/**
+	 * @param line : aligned address of the line
+	 * @return true if an access to the line with a response is waiting or in flight, i.e. its response has not been sent yet
+	 */
+	boolean hasPendingResponse(long line) {
+		for (int i = 0; i < m_queue.size(); i++) {
+			Access a = m_queue.get(i);
+			if (a.m_line == line && a.m_rsp_cmd != cmd_t.NOP) {
+				return true;
+			}
+		}
+		for (Access a : m_in_flight) {
+			if (a.m_line == line && a.m_rsp_cmd != cmd_t.NOP) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Issues the access chosen by the FR-FCFS scheduler, if any can be issued during the cycle
+	 */
+	void simulate1Cycle(int cycle) {
+		int chosen = -1;
+		for (int i = 0; i < m_queue.size(); i++) {
+			Access a = m_queue.get(i);
+			if (readyCycle(a) > cycle || hasOlderAccess(i)) {
+				continue;
+			}
+			if (r_open_row[a.m_bank] == a.m_row) {
+				chosen = i;
+				break;
+			}
+			if (chosen == -1) {
+				chosen = i;
+			}
+		}
+		if (chosen == -1) {
+			return;
+		}
+		Access a = m_queue.remove(chosen);
+		int latency;
+		if (r_open_row[a.m_bank] == a.m_row) {
+			latency = m_tcas;
+			m_nb_row_hits++;
+		}
+		else if (r_open_row[a.m_bank] == -1) {
+			latency = m_trcd + m_tcas;
+			m_nb_row_misses++;
+		}
+		else {
+			latency = m_trp + m_trcd + m_tcas;
+			m_nb_row_conflicts++;
+		}
+		int start = Math.max(cycle + latency, r_bus_free);
+		a.m_done_cycle = start + m_tburst;
+		r_bus_free = a.m_done_cycle;
+		if (m_policy == PagePolicy.OPEN) {
+			r_open_row[a.m_bank] = a.m_row;
+			r_bank_ready[a.m_bank] = a.m_done_cycle;
+			// cycle of the column access, plus the burst
+			r_bank_hit_ready[a.m_bank] = cycle + latency - m_tcas + m_tburst;
+		}
+		else {
+			r_open_row[a.m_bank] = -1;
+			r_bank_ready[a.m_bank] = a.m_done_cycle + m_trp;
+		}
+		m_in_flight.addLast(a);
+	}
+
+	/**
+	 * @return the first cycle at which the bank of the access is ready for it
+	 */
+	private int readyCycle(Access a) {
+		if (r_open_row[a.m_bank] == a.m_row) {
+			return r_bank_hit_ready[a.m_bank];
+		}
+		return r_bank_ready[a.m_bank];
+	}
+
+	/**
+	 * @return true if an access older than the one at index i in the queue is on the same line
+	 */
+	private boolean hasOlderAccess(int i) {
+		long line = m_queue.get(i).m_line;
+		for (int j = 0; j < i; j++) {
+			if (m_queue.get(j).m_line == line) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Recycles the posted writes completed, then checks whether an access with a response is completed
+	 * @return true if the response of an access completed at the latest during the cycle is available,
+	 *         in which case its fields are given by the getters until it is removed with popResponse()
+	 */
+	boolean hasResponse(int cycle) {
+		Access a;
+		while ((a = m_in_flight.peekFirst()) != null && a.m_done_cycle <= cycle) {
+			if (a.m_rsp_cmd != cmd_t.NOP) {
+				return true;
+			}
+			m_free.addLast(m_in_flight.pollFirst());
+		}
+		return false;
+	}
+
+	long getResponseAddress() {
+		return m_in_flight.peekFirst().m_addr;
+	}
+
+	int getResponseTgtid() {
+		return m_in_flight.peekFirst().m_tgtid;
+	}
+
+	cmd_t getResponseCmd() {
+		return m_in_flight.peekFirst().m_rsp_cmd;
+	}
+
+	/**
+	 * @return the data of the response, null if it has none
+	 */
+	long [] getResponseData() {
+		Access a = m_in_flight.peekFirst();
+		return a.m_has_data ? a.m_data : null;
+	}
+
+	void popResponse() {
+		m_free.addLast(m_in_flight.pollFirst());
+	}
+
+	/**
+	 * @return the first cycle from cycle on at which an access can be issued or completed, Integer.MAX_VALUE if none
+	 */
+	int nextEventCycle(int cycle) {
+		int next = Integer.MAX_VALUE;
+		if (!m_in_flight.isEmpty()) {
+			next = Math.max(cycle, m_in_flight.peekFirst().m_done_cycle);
+		}
+		for (int i = 0; i < m_queue.size(); i++) {
+			next = Math.min(next, Math.max(cycle, readyCycle(m_queue.get(i))));
+		}
+		return next;
+	}
+
+	public long getNbRowHits() {
+		return m_nb_row_hits;
+	}
+
+	public long getNbRowMisses() {
+		return m_nb_row_misses;
+	}
+
+	public long getNbRowConflicts() {
+		return m_nb_row_conflicts;
+	}
+
+}
@@ -0,0 +1,51 @@
+package model;
+
+import java.util.List;
+
+/**
+ * Next-event scheduling of a set of modules and channels.
+ * When no module can change state before some channel delivers a request, the cycles until that delivery
+ * are all identical: only the cycle counters move. Instead of simulating them, the counters of all the
+ * modules and channels are advanced at once to the cycle of the next event. Since requests keep the cycles
+ * at which they are sent and delivered, the cycle counts and the chronogram are the same as when
+ * simulating every cycle.
+ */
+public abstract class EventScheduler {
+
+	/**
+	 * @return the first cycle at which one of the modules or channels can change state, Integer.MAX_VALUE if
+	 *         they are all idle and the channels are empty
+	 */
+	public static int nextEventCycle(List<? extends Module> modules, List<Channel> channels) {
+		int next = Integer.MAX_VALUE;
+		for (Module m : modules) {
+			next = Math.min(next, m.nextEventCycle());
+		}
+		for (Channel c : channels) {
+			next = Math.min(next, c.nextEventCycle());
+		}
+		return next;
+	}
+
+
+	/**
+	 * Skips the idle cycles before the next event, at most maxSkip
+	 * @param cycle : current cycle of the modules and channels
+	 * @return the number of cycles skipped
+	 */
+	public static int skipIdleCycles(List<? extends Module> modules, List<Channel> channels, int cycle, int maxSkip) {
+		int next = nextEventCycle(modules, channels);
+		if (next <= cycle) {
+			return 0;
+		}
+		int n = (int) Math.min((long) next - cycle, maxSkip);
+		for (Module m : modules) {
+			m.skipCycles(n);
+		}
+		for (Channel c : channels) {
+			c.skipCycles(n);
+		}
+		return n;
+	}
+
+}
@@ -0,0 +1,267 @@
+package model;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+import model.Request.cmd_t;
+
+/**
+ * List of the finished requests of a topcell, in the order in which they finish (i.e. by increasing end cycle).
+ * By default, all the requests are kept in memory. After a call to setWindow(), only the requests which finished
+ * during the last nbCycles cycles are kept as objects; older requests are encoded (as in TransactionTraceWriter,
+ * without the start cycle delta) in a file mapped in memory by segments, and are decoded again when they are read,
+ * as new Request objects. The list thus keeps its indexes, but reading an old request twice returns two distinct objects.
+ * Reading the spilled requests in increasing order (e.g. with an iterator) decodes each of them once; a random
+ * access decodes at most indexStep records.
+ * Requests can only be appended to the list.
+ * @author QLM
+ */
+public class FinishedRequestList extends AbstractList<Request> {
+
+	private static final int segmentSize = 1 << 24;
+	// one out of indexStep spilled records has its offset in m_index
+	private static final int indexStep = 64;
+	private static final cmd_t [] cmds = cmd_t.values();
+
+	// requests kept in memory, stored in a ring buffer
+	private Request [] m_ring = new Request[1024];
+	private int m_head = 0;
+	private int m_count = 0;
+
+	private int m_window = Integer.MAX_VALUE;
+	private FileChannel m_file = null;
+	private List<MappedByteBuffer> m_segments = new ArrayList<MappedByteBuffer>();
+	private ByteBuffer m_write = null;
+	private int m_nb_spilled = 0;
+	// offset in the file of the records indexStep * i, and end cycle of these records
+	private long [] m_index = new long[16];
+	private int [] m_index_cycles = new int[16];
+
+	// position of the next record to decode when reading the spilled requests in order
+	private int m_cursor = -1;
+	private long m_cursor_offset;
+
+	/**
+	 * Keeps in memory only the requests which finished during the last nbCycles cycles, the older ones being
+	 * spilled in the file path; must be called before adding requests
+	 * @throws IOException if the file cannot be created
+	 */
+	public void setWindow(int nbCycles, Path path) throws IOException {
+		assert (m_count == 0 && m_nb_spilled == 0);
+		assert (nbCycles >= 0);
+		if (m_file != null) {
+			m_file.close();
+		}
+		m_window = nbCycles;
+		m_file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.DELETE_ON_CLOSE);
+		m_segments.clear();
+		m_write = null;
+	}
+
+	/**
+	 * @return the number of requests spilled to the file
+	 */
+	public int getNbSpilled() {
+		return m_nb_spilled;
+	}
+
+	/**
+	 * @return the number of requests kept in memory
+	 */
+	public int getNbInMemory() {
+		return m_count;
+	}
+
+	public int size() {
+		return m_nb_spilled + m_count;
+	}
+
+	/**
+	 * @throws UncheckedIOException if a request cannot be spilled
+	 */
+	public boolean add(Request req) {
+		if (m_count == m_ring.length) {
+			Request [] ring = new Request[m_ring.length * 2];
+			for (int i = 0; i < m_count; i++) {
+				ring[i] = m_ring[(m_head + i) % m_ring.length];
+			}
+			m_ring = ring;
+			m_head = 0;
+		}
+		m_ring[(m_head + m_count) % m_ring.length] = req;
+		m_count++;
+		modCount++;
+		if (m_file != null) {
+			int limit = req.getEndCycle() - m_window;
+			try {
+				while (m_count > 0 && m_ring[m_head].getEndCycle() < limit) {
+					spill(m_ring[m_head]);
+					m_ring[m_head] = null;
+					m_head = (m_head + 1) % m_ring.length;
+					m_count--;
+				}
+			}
+			catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		return true;
+	}
+
+	public Request get(int index) {
+		if (index < 0 || index >= size()) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+		}
+		if (index >= m_nb_spilled) {
+			return m_ring[(m_head + index - m_nb_spilled) % m_ring.length];
+		}
+		if (index < m_cursor || index >= m_cursor + indexStep || m_cursor == -1) {
+			m_cursor = index - index % indexStep;
+			m_cursor_offset = m_index[index / indexStep];
+		}
+		Request req = null;
+		while (m_cursor <= index) {
+			req = decode(m_cursor == index);
+			m_cursor++;
+		}
+		return req;
+	}
+
+	/**
+	 * @param cycle
+	 * @return the index of the first request of the list ending at or after cycle, size() if none
+	 */
+	public int indexOfEndCycle(int cycle) {
+		if (m_count > 0 && m_ring[m_head].getEndCycle() < cycle) {
+			// in memory: the requests are sorted by end cycle
+			int lo = 0;
+			int hi = m_count;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (m_ring[(m_head + mid) % m_ring.length].getEndCycle() < cycle) {
+					lo = mid + 1;
+				}
+				else {
+					hi = mid;
+				}
+			}
+			return m_nb_spilled + lo;
+		}
+		if (m_nb_spilled == 0) {
+			return 0;
+		}
+		// the first indexed record ending at or after cycle, then the previous records of its block
+		int nbIndexed = (m_nb_spilled + indexStep - 1) / indexStep;
+		int lo = 0;
+		int hi = nbIndexed;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (m_index_cycles[mid] < cycle) {
+				lo = mid + 1;
+			}
+			else {
+				hi = mid;
+			}
+		}
+		int i = Math.max(0, lo - 1) * indexStep;
+		while (i < m_nb_spilled && get(i).getEndCycle() < cycle) {
+			i++;
+		}
+		return i;
+	}
+
+	private void spill(Request req) throws IOException {
+		long [] data = req.getData();
+		int maxSize = 1 + 6 * TransactionTraceWriter.maxVarintSize;
+		if (data != null) {
+			maxSize += (data.length + 1) * TransactionTraceWriter.maxVarintSize;
+		}
+		if (m_write == null || m_write.remaining() < maxSize) {
+			MappedByteBuffer segment = m_file.map(FileChannel.MapMode.READ_WRITE, (long) m_segments.size() * segmentSize, segmentSize);
+			m_segments.add(segment);
+			m_write = segment.duplicate();
+		}
+		if (m_nb_spilled % indexStep == 0) {
+			int i = m_nb_spilled / indexStep;
+			if (i == m_index.length) {
+				long [] index = new long[i * 2];
+				int [] cycles = new int[i * 2];
+				System.arraycopy(m_index, 0, index, 0, i);
+				System.arraycopy(m_index_cycles, 0, cycles, 0, i);
+				m_index = index;
+				m_index_cycles = cycles;
+			}
+			m_index[i] = (long) (m_segments.size() - 1) * segmentSize + m_write.position();
+			m_index_cycles[i] = req.getEndCycle();
+		}
+		m_write.put((byte) ((req.getCmd().ordinal() << 2) | (data != null ? 2 : 0)));
+		TransactionTraceWriter.putVarint(m_write, req.getStartCycle());
+		TransactionTraceWriter.putVarint(m_write, req.getEndCycle() - req.getStartCycle());
+		TransactionTraceWriter.putVarint(m_write, req.getAddress());
+		TransactionTraceWriter.putVarint(m_write, req.getSrcid());
+		TransactionTraceWriter.putVarint(m_write, TransactionTraceWriter.zigzag(req.getTgtid()));
+		TransactionTraceWriter.putVarint(m_write, req.getBe());
+		if (data != null) {
+			TransactionTraceWriter.putVarint(m_write, data.length);
+			for (int i = 0; i < data.length; i++) {
+				TransactionTraceWriter.putVarint(m_write, TransactionTraceWriter.zigzag(data[i]));
+			}
+		}
+		m_nb_spilled++;
+	}
+
+	/**
+	 * Decodes the record at m_cursor_offset and advances m_cursor_offset to the next record
+	 * @param build : if false, the record is only skipped
+	 * @return the request decoded, or null if build is false
+	 */
+	private Request decode(boolean build) {
+		int seg = (int) (m_cursor_offset / segmentSize);
+		ByteBuffer buf = m_segments.get(seg).duplicate();
+		buf.position((int) (m_cursor_offset % segmentSize));
+		int head = buf.get() & 0xFF;
+		int start = (int) getVarint(buf);
+		int end = start + (int) getVarint(buf);
+		long address = getVarint(buf);
+		int srcid = (int) getVarint(buf);
+		int tgtid = (int) TransactionTraceReader.unzigzag(getVarint(buf));
+		int be = (int) getVarint(buf);
+		long [] data = null;
+		if ((head & 2) != 0) {
+			data = new long[(int) getVarint(buf)];
+			for (int i = 0; i < data.length; i++) {
+				data[i] = TransactionTraceReader.unzigzag(getVarint(buf));
+			}
+		}
+		m_cursor_offset = (long) seg * segmentSize + buf.position();
+		if (!build) {
+			return null;
+		}
+		Request req = new Request(address, srcid, tgtid, cmds[head >>> 2], start, 0, data, be);
+		req.addToFinishedReqs(end);
+		req.r_retained = true;
+		return req;
+	}
+
+	private static long getVarint(ByteBuffer buf) {
+		long res = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buf.get();
+			res |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		return res;
+	}
+
+}
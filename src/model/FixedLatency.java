@@ -0,0 +1,25 @@
+package model;
+
+import java.util.SplittableRandom;
+
+/**
+ * Constant delay, whatever the maximum delay given by the sender.
+ */
+public class FixedLatency extends LatencyModel {
+
+	private final int m_delay;
+
+	public FixedLatency(int delay) {
+		assert (delay >= 0);
+		m_delay = delay;
+	}
+
+	public int delay(int maxDelay, SplittableRandom rng) {
+		return m_delay;
+	}
+
+	public String toString() {
+		return "fixed:" + m_delay;
+	}
+
+}
@@ -0,0 +1,34 @@
+package model;
+
+import java.util.SplittableRandom;
+
+/**
+ * Geometric delay: the number of cycles before a success, each cycle succeeding with probability 1 / (mean + 1),
+ * so that the mean delay is mean cycles. The maximum delay given by the sender is ignored.
+ */
+public class GeometricLatency extends LatencyModel {
+
+	private final double m_mean;
+	// log(1 - p), p being the probability of success of a cycle
+	private final double m_log_q;
+
+	public GeometricLatency(double mean) {
+		assert (mean >= 0);
+		m_mean = mean;
+		m_log_q = Math.log(mean / (mean + 1));
+	}
+
+	public int delay(int maxDelay, SplittableRandom rng) {
+		if (m_mean == 0) {
+			return 0;
+		}
+		// inversion: floor(log(U) / log(1 - p)) with U uniform in (0, 1]
+		double u = 1.0 - rng.nextDouble();
+		return (int) Math.min(Integer.MAX_VALUE / 2, Math.floor(Math.log(u) / m_log_q));
+	}
+
+	public String toString() {
+		return "geometric:" + m_mean;
+	}
+
+}
@@ -14,7 +14,7 @@ public abstract class L1Controller implements Module {
 	/**
 	 * Offset for L1 caches srcid
 	 */
-	static final int l1StartId = 10;
+	public static final int l1StartId = 10;
 	
 	/**
 	 * Global initiator and target index
@@ -40,11 +40,39 @@ public abstract class L1Controller implements Module {
 	
 	protected CacheL1 m_cache_l1;
 	
+	/**
+	 * Buffers reused at each cycle, so that the cache accesses do not allocate
+	 */
+	protected long [] m_word_buf = new long[1];
+	protected LineState m_line_state = new LineState();
+	protected CacheAccessResult m_inval_result;
+	
+	/**
+	 * Pool of the requests sent by the controller, in which the requests received are released
+	 */
+	protected RequestPool m_pool = new RequestPool();
+	
+	/**
+	 * Miss status holding registers of a non-blocking cache; null for a blocking cache, which serves no processor
+	 * request while it waits for a line
+	 */
+	protected MshrTable m_mshrs = null;
+	
+	/**
+	 * True if the processor request at the head of the channel cannot be served until a line is received,
+	 * because all the MSHRs are used or because it writes a line being fetched
+	 */
+	protected boolean r_iss_blocked = false;
+	
 	
 	protected long align(long addr) {
 		return (addr & ~((1 << (2 + Utile.log2(m_words))) - 1));
 	}
 	
+	public void skipCycles(int n) {
+		m_cycle += n;
+	}
+	
 	public void printContent() {
 		System.out.println("Cache " + m_name);
 		m_cache_l1.printTrace();
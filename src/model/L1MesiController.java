@@ -1,10 +1,9 @@
 package model;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import model.LineState.cacheSlotState;
 import model.Request.cmd_t;
+import utils.Trace;
+import utils.Trace.Level;
 
 /**
  * This class implements a L1 MESI controller. The l1StartId purpose is to make a correspondence between the processor srcid, ranging from 0 to nb_caches - 1,
@@ -29,7 +28,7 @@ public class L1MesiController extends L1Controller {
 	private boolean r_ignore_rsp; // ignore next response when receiving it
 	private cmd_t r_cmd_req;
 	private long r_wb_addr; // write-back address
-	private List<Long> r_wb_buf; // write-back buffer
+	private long [] r_wb_buf; // write-back buffer
 	private boolean r_rsp_miss_ok; // response to the miss has been received (set by "rsp_fsm")
 	private boolean r_current_wb; // true if a write-back is currently being done; there can be only one at a time
 	private int r_victimWay; // way of a line selected with readSelect, then used with writeLineAtWay
@@ -79,6 +78,8 @@ public class L1MesiController extends L1Controller {
 		p_in_iss_req = req_from_iss;
 		p_out_iss_rsp = rsp_to_iss;
 		m_cache_l1 = new CacheL1("CacheL1", procid, nways, nsets, nwords);
+		m_inval_result = new CacheAccessResult(nwords);
+		r_wb_buf = new long[nwords];
 		p_in_req.addTgtidTranslation(r_srcid, this); // Associate the component to its srcid for the channel
 		p_in_rsp.addTgtidTranslation(r_srcid, this);
 		p_in_iss_req.addTgtidTranslation(r_srcid, this); // the channel index is 0 since the processor is connected to a single L1
@@ -92,7 +93,6 @@ public class L1MesiController extends L1Controller {
 		r_ignore_rsp = false;
 		r_cmd_req = cmd_t.NOP;
 		r_wb_addr = 0;
-		r_wb_buf = null;
 		r_rsp_miss_ok = false;
 		r_current_wb = false;
 		m_cycle = 0;
@@ -107,7 +107,9 @@ public class L1MesiController extends L1Controller {
 		m_iss_req = p_in_iss_req.front(this);
 		m_iss_req.setStartCycle(m_cycle); // Must be done here since proc requests can be added before simulation starts
 		p_in_iss_req.addToFinishedReqs(this);
-		System.out.println(m_name + " gets:\n" + m_iss_req);
+		if (Trace.on(Level.DEBUG, m_name)) {
+			Trace.log(m_name + " gets:\n" + m_iss_req);
+		}
 	}
 
 
@@ -123,30 +125,31 @@ public class L1MesiController extends L1Controller {
 	 */
 	private void sendIssResponse(long addr, cmd_t type, long data) {
 		p_in_iss_req.popFront(this); // remove request from channel
-		List<Long> l = new ArrayList<Long>();
-		l.add(data);
+		m_word_buf[0] = data;
 		Request req = null;
 		if (type == cmd_t.RSP_WRITE_WORD) {
-			req = new Request(addr, r_srcid, // srcid
+			req = m_pool.alloc(addr, r_srcid, // srcid
 					r_procid, // targetid (srcid of the proc)
 					type, // cmd
 					m_cycle, // start cycle
 					0); // max duration
 		}
 		else if (type == cmd_t.RSP_READ_WORD) {
-			req = new Request(addr, r_srcid, // srcid
+			req = m_pool.alloc(addr, r_srcid, // srcid
 					r_procid, // targetid (srcid of the proc)
 					type, // cmd
 					m_cycle, // start cycle
 					0, // max_duration
-					l, // data
+					m_word_buf, // data
 					0xF); // be
 		}
 		else {
 			assert (false);
 		}
 
+		req.setTag(m_iss_req.getTag());
 		p_out_iss_rsp.pushBack(req);
+		m_pool.release(m_iss_req);
 	}
 
 
@@ -158,7 +161,9 @@ public class L1MesiController extends L1Controller {
 		m_req = p_in_req.front(this);
 		assert (m_req.getNwords() == 0);
 		p_in_req.popFront(this);
-		System.out.println(m_name + " gets req:\n" + m_req);
+		if (Trace.on(Level.DEBUG, m_name)) {
+			Trace.log(m_name + " gets req:\n" + m_req);
+		}
 	}
 
 
@@ -169,7 +174,9 @@ public class L1MesiController extends L1Controller {
 	private void getResponse() {
 		m_rsp = p_in_rsp.front(this);
 		p_in_rsp.popFront(this);
-		System.out.println(m_name + " gets rsp:\n" + m_rsp);
+		if (Trace.on(Level.DEBUG, m_name)) {
+			Trace.log(m_name + " gets rsp:\n" + m_rsp);
+		}
 	}
 
 
@@ -183,10 +190,12 @@ public class L1MesiController extends L1Controller {
 	 * @param rdata
 	 *            Values to update if appropriated, null otherwise
 	 */
-	private void sendRequest(long addr, cmd_t type, List<Long> rdata) {
-		Request req = new Request(addr, r_srcid, -1, type, m_cycle, 3, rdata, 0xF);
+	private void sendRequest(long addr, cmd_t type, long [] rdata) {
+		Request req = m_pool.alloc(addr, r_srcid, -1, type, m_cycle, 3, rdata, 0xF);
 		p_out_req.pushBack(req);
-		System.out.println(m_name + " sends req:\n" + req);
+		if (Trace.on(Level.DEBUG, m_name)) {
+			Trace.log(m_name + " sends req:\n" + req);
+		}
 	}
 
 
@@ -202,17 +211,18 @@ public class L1MesiController extends L1Controller {
 	 * @param tgtid
 	 *            Byte Enable in case of write
 	 */
-	private void sendResponse(long addr, int tgtid, cmd_t type, List<Long> rdata) {
-		Request rsp = new Request(addr, r_srcid, tgtid, type, m_cycle, 3, rdata, 0xF);
+	private void sendResponse(long addr, int tgtid, cmd_t type, long [] rdata) {
+		Request rsp = m_pool.alloc(addr, r_srcid, tgtid, type, m_cycle, 3, rdata, 0xF);
 		p_out_rsp.pushBack(rsp);
-		System.out.println(m_name + " sends rsp:\n" + rsp);
+		if (Trace.on(Level.DEBUG, m_name)) {
+			Trace.log(m_name + " sends rsp:\n" + rsp);
+		}
 	}
 
 
 	public void simulate1Cycle() {
 
-		LineState lineState = new LineState();
-		//List<Long> data = new ArrayList<Long>();
+		LineState lineState = m_line_state;
 
 		switch (r_fsm_state) {
 
@@ -238,20 +248,20 @@ public class L1MesiController extends L1Controller {
 				if (m_iss_req.getCmd() == cmd_t.READ_WORD){
 					if (m_cache_l1.read(align(m_iss_req.getAddress()), r_wb_buf, lineState)){
 						if (lineState.state == cacheSlotState.VALID){
-							sendIssResponse(align(m_iss_req.getAddress()), cmd_t.RSP_READ_WORD, r_wb_buf.get(0));
-							System.out.println("HIT");
+							sendIssResponse(align(m_iss_req.getAddress()), cmd_t.RSP_READ_WORD, r_wb_buf[0]);
+							Trace.log(Level.TRACE, m_name, "HIT");
 							break;
 						}else if (lineState.state == cacheSlotState.ZOMBI){
 							r_fsm_state=FsmState.FSM_MISS;
-							System.out.println("MISS");
+							Trace.log(Level.TRACE, m_name, "MISS");
 							break;
 						}else {
-							System.out.println("PROBLEM NOT VALID NOT ZOMBI");
+							Trace.log(Level.TRACE, m_name, "PROBLEM NOT VALID NOT ZOMBI");
 							break;
 						}
 					}else{
 						r_fsm_state=FsmState.FSM_MISS;
-						System.out.println("MISS");
+						Trace.log(Level.TRACE, m_name, "MISS");
 						break;
 					}
 				}
@@ -259,12 +269,12 @@ public class L1MesiController extends L1Controller {
 				if (m_iss_req.getCmd() == cmd_t.WRITE_WORD) {
 					r_wb_addr = align(m_iss_req.getAddress());
 					if (m_cache_l1.read(r_wb_addr, r_wb_buf, lineState)) {
-						System.out.println("HIT");
-						System.out.println("WRITE");
+						Trace.log(Level.TRACE, m_name, "HIT");
+						Trace.log(Level.TRACE, m_name, "WRITE");
 						r_fsm_state = FsmState.FSM_WRITE_UPDATE;
 						break;
 					} else {
-						System.out.println("MISS");
+						Trace.log(Level.TRACE, m_name, "MISS");
 						r_fsm_state = FsmState.FSM_MISS;
 						break;
 					}
@@ -274,7 +284,7 @@ public class L1MesiController extends L1Controller {
 				assert(r_fsm_state == FsmState.FSM_INVAL);
 
 				if (m_req.getCmd() == cmd_t.INVAL) {
-					CacheAccessResult res = m_cache_l1.inval(align(m_req.getAddress()), true);
+					CacheAccessResult res = m_cache_l1.inval(align(m_req.getAddress()), true, m_inval_result);
 					if (res.victimDirty) {
 						sendResponse(m_req.getAddress(), m_req.getSrcid(), cmd_t.RSP_INVAL_DIRTY, m_req.getData());
 					} else {
@@ -282,13 +292,14 @@ public class L1MesiController extends L1Controller {
 					}
 				}
 				else if(m_req.getCmd() == cmd_t.INVAL_RO) {
-					CacheAccessResult res = m_cache_l1.inval(align(m_req.getAddress()), false);
+					CacheAccessResult res = m_cache_l1.inval(align(m_req.getAddress()), false, m_inval_result);
 					if (res.victimDirty) {
 						sendResponse(m_req.getAddress(), m_req.getSrcid(), cmd_t.RSP_INVAL_RO_DIRTY, m_req.getData());
 					} else {
 						sendResponse(m_req.getAddress(), m_req.getSrcid(), cmd_t.RSP_INVAL_RO_CLEAN, m_req.getData());
 					}
 				}
+				m_pool.release(m_req);
 				r_fsm_state = FsmState.FSM_IDLE;
 				break;
 
@@ -296,12 +307,12 @@ public class L1MesiController extends L1Controller {
 				m_cache_l1.read(align(m_iss_req.getAddress()), r_wb_buf, lineState);
 				if (lineState.dirty) {
 					sendRequest(r_wb_addr, cmd_t.WRITE_LINE, r_wb_buf);
-					System.out.println("DIRTY");
+					Trace.log(Level.TRACE, m_name, "DIRTY");
 					r_fsm_state = FsmState.FSM_WRITE_BACK;
 					break;
 				} else {
 					sendRequest(align(m_iss_req.getAddress()),cmd_t.READ_LINE, m_iss_req.getData());
-					System.out.println("CLEAN");
+					Trace.log(Level.TRACE, m_name, "CLEAN");
 					r_fsm_state = FsmState.FSM_MISS_WAIT;
 					break;
 				}
@@ -328,8 +339,8 @@ public class L1MesiController extends L1Controller {
 			case FSM_WRITE_UPDATE:
 				m_cache_l1.read(m_iss_req.getAddress(), r_wb_buf, lineState);
 				if(lineState.exclu){
-					m_cache_l1.write(m_iss_req.getAddress(), m_iss_req.getData().get(0), m_iss_req.getBe());
-					sendIssResponse(m_iss_req.getAddress(), cmd_t.RSP_WRITE_WORD, m_iss_req.getData().get(0));
+					m_cache_l1.write(m_iss_req.getAddress(), m_iss_req.getData()[0], m_iss_req.getBe());
+					sendIssResponse(m_iss_req.getAddress(), cmd_t.RSP_WRITE_WORD, m_iss_req.getData()[0]);
 					r_fsm_state = FsmState.FSM_IDLE;
 					break;
 				}else{
@@ -341,8 +352,8 @@ public class L1MesiController extends L1Controller {
 							lineState.exclu = true;
 							lineState.dirty = false;
 							m_cache_l1.writeDir(align(m_iss_req.getAddress()), lineState);
-							m_cache_l1.write(m_iss_req.getAddress(),m_iss_req.getData().get(0), m_iss_req.getBe());
-							sendIssResponse(m_iss_req.getAddress(), cmd_t.RSP_WRITE_WORD, m_iss_req.getData().get(0));
+							m_cache_l1.write(m_iss_req.getAddress(),m_iss_req.getData()[0], m_iss_req.getBe());
+							sendIssResponse(m_iss_req.getAddress(), cmd_t.RSP_WRITE_WORD, m_iss_req.getData()[0]);
 						}
 					}
 				}
@@ -353,7 +364,9 @@ public class L1MesiController extends L1Controller {
 				break;
 		}
 
-		System.out.println(m_name + " next state: " + r_fsm_state);
+		if (Trace.on(Level.TRACE, m_name)) {
+			Trace.log(m_name + " next state: " + r_fsm_state);
+		}
 
 		// Following code equivalent to a 1-state FSM executing in parallel
 		// which is in charge of consuming the responses on the p_in_rsp_port (r_fsm_rsp)
@@ -366,6 +379,7 @@ public class L1MesiController extends L1Controller {
 			}
 			else if (m_rsp.getCmd() == cmd_t.RSP_WRITE_LINE) {
 				r_current_wb = false;
+				m_pool.release(m_rsp);
 			}
 			else {
 				assert (false);
@@ -375,6 +389,21 @@ public class L1MesiController extends L1Controller {
 	}
 
 
+	public int nextEventCycle() {
+		if (!p_in_req.empty(this) || !p_in_rsp.empty(this)) {
+			return m_cycle;
+		}
+		if (r_fsm_state == FsmState.FSM_IDLE && p_in_iss_req.empty(this)) {
+			return Integer.MAX_VALUE;
+		}
+		// The processor request stays in p_in_iss_req until the miss is served
+		if (r_fsm_state == FsmState.FSM_MISS_WAIT && !r_rsp_miss_ok) {
+			return Integer.MAX_VALUE;
+		}
+		return m_cycle;
+	}
+
+
 	public int getSrcid() {
 		return r_srcid;
 	}
@@ -1,14 +1,18 @@
 package model;
 
-import java.util.ArrayList;
-import java.util.List;
-
 //mport model.LineState.cacheSlotState;
 import model.LineState.cacheSlotState;
 import model.Request.cmd_t;
+import utils.Trace;
+import utils.Trace.Level;
 
 /**
  * This class implements a L1 WTI controller.
+ * The controller is either blocking, as the original one, or non-blocking with MSHRs: a read miss then takes
+ * the processor request out of the channel and keeps it in an MSHR until the line is received, the following
+ * processor requests being served meanwhile (hit under miss). A read miss on a line already being fetched is merged
+ * into its MSHR, and a write on such a line waits for the line, so that the reads merged cannot return a value
+ * older than the write.
  * 
  * @author QLM
  */
@@ -27,6 +31,7 @@ public class L1WtiController extends L1Controller {
 	 */
 	private boolean r_ignore_rsp; // ignore next response when receiving it
 	private boolean r_rsp_miss_ok; // response to the miss has been received (set by "rsp_fsm")
+	private boolean r_miss_invalidated; // line of the blocking miss invalidated while waiting for its response
 	private boolean r_update_cache; // Needs to update the cache after a write since it contains a valid copy
 	
 	/**
@@ -50,14 +55,31 @@ public class L1WtiController extends L1Controller {
 	 * Last direct response received from the ram, written by method getResponse()
 	 */
 	private Request m_rsp;
+	/**
+	 * Response to the last miss, saved by the response FSM since m_rsp can be overwritten by a write response
+	 */
+	private Request m_rsp_miss;
 	/**
 	 * Last processor request received from the ram, written by method getIssRequest()
 	 */
 	private Request m_iss_req;
 	
 
+	/**
+	 * Builds a blocking controller
+	 */
 	public L1WtiController(String name, int procid, int nways, int nsets, int nwords, Channel req_to_mem, Channel rsp_from_mem, Channel req_from_mem,
 			Channel rsp_to_mem, Channel req_from_iss, Channel rsp_to_iss) {
+		this(name, procid, nways, nsets, nwords, req_to_mem, rsp_from_mem, req_from_mem, rsp_to_mem, req_from_iss, rsp_to_iss, 0);
+	}
+	
+
+	/**
+	 * @param nbMshrs : maximum number of lines fetched at the same time; 0 for a blocking controller
+	 */
+	public L1WtiController(String name, int procid, int nways, int nsets, int nwords, Channel req_to_mem, Channel rsp_from_mem, Channel req_from_mem,
+			Channel rsp_to_mem, Channel req_from_iss, Channel rsp_to_iss, int nbMshrs) {
+		assert (nbMshrs >= 0);
 		r_procid = procid;
 		r_srcid = l1StartId + procid;
 		m_words = nwords;
@@ -70,6 +92,10 @@ public class L1WtiController extends L1Controller {
 		p_in_iss_req = req_from_iss;
 		p_out_iss_rsp = rsp_to_iss;
 		m_cache_l1 = new CacheL1("CacheL1", procid, nways, nsets, nwords);
+		m_inval_result = new CacheAccessResult(nwords);
+		if (nbMshrs > 0) {
+			m_mshrs = new MshrTable(nbMshrs);
+		}
 		p_in_req.addTgtidTranslation(r_srcid, this); // Translation r_srcid (real unique srcid) to channel index
 		p_in_rsp.addTgtidTranslation(r_srcid, this);
 		p_in_iss_req.addTgtidTranslation(r_srcid, this);
@@ -82,6 +108,8 @@ public class L1WtiController extends L1Controller {
 		r_fsm_prev_state = FsmState.FSM_IDLE;
 		r_ignore_rsp = false;
 		r_rsp_miss_ok = false;
+		r_miss_invalidated = false;
+		r_iss_blocked = false;
 		m_cycle = 0;
 	}
 	
@@ -94,7 +122,9 @@ public class L1WtiController extends L1Controller {
 		m_iss_req = p_in_iss_req.front(this);
 		m_iss_req.setStartCycle(m_cycle); // Must be done here since proc requests can be added before simulation starts
 		p_in_iss_req.addToFinishedReqs(this);
-		System.out.println(m_name + " gets:\n" + m_iss_req);
+		if (Trace.on(Level.DEBUG, m_name)) {
+			Trace.log(m_name + " gets:\n" + m_iss_req);
+		}
 	}
 	
 
@@ -110,34 +140,74 @@ public class L1WtiController extends L1Controller {
 	 */
 	private void sendIssResponse(long addr, cmd_t type, long data) {
 		p_in_iss_req.popFront(this); // remove request from channel
-		List<Long> l = new ArrayList<Long>();
-		l.add(data);
+		sendIssResponse(m_iss_req, addr, type, data);
+		m_iss_req = null;
+	}
+	
+
+	/**
+	 * Sends a response to a processor request already taken out of p_in_iss_req, and releases the request
+	 */
+	private void sendIssResponse(Request iss_req, long addr, cmd_t type, long data) {
+		m_word_buf[0] = data;
 		Request req;
 		if (type == cmd_t.RSP_WRITE_WORD) {
-			req = new Request(addr, r_srcid, // srcid
+			req = m_pool.alloc(addr, r_srcid, // srcid
 					r_procid, // targetid (srcid of the proc)
 					type, // cmd
 					m_cycle, // start cycle
 					0); // max duration
 		}
 		else if (type == cmd_t.RSP_READ_WORD) {
-			req = new Request(addr, r_srcid, // srcid
+			req = m_pool.alloc(addr, r_srcid, // srcid
 					r_procid, // targetid (srcid of the proc)
 					type, // cmd
 					m_cycle, // start cycle
 					0, // max_duration
-					l, // data
+					m_word_buf, // data
 					0xF); // be
 		}
 		else {
 			req = null; // avoid error
 			assert (false);
 		}
+		req.setTag(iss_req.getTag());
 		p_out_iss_rsp.pushBack(req);
+		m_pool.release(iss_req);
+	}
+	
+
+	/**
+	 * Takes the processor request out of p_in_iss_req and adds it to the targets of an MSHR
+	 */
+	private void addMshrTarget(int mshr) {
+		p_in_iss_req.popFront(this);
+		m_mshrs.addTarget(mshr, m_iss_req);
 		m_iss_req = null;
 	}
 	
 
+	/**
+	 * Writes the line received in the cache, unless it has been invalidated meanwhile, and answers the processor
+	 * requests waiting for it
+	 */
+	private void fillMshr(Request rsp) {
+		int mshr = m_mshrs.find(rsp.getAddress());
+		assert (mshr != -1);
+		if (!m_mshrs.isInvalidated(mshr)) {
+			m_cache_l1.writeLine(rsp.getAddress(), rsp.getData(), false);
+		}
+		Request target;
+		while ((target = m_mshrs.pollTarget(mshr)) != null) {
+			int word = (int) ((target.getAddress() - rsp.getAddress()) >> 2);
+			sendIssResponse(target, target.getAddress(), cmd_t.RSP_READ_WORD, rsp.getData()[word]);
+		}
+		m_mshrs.free(mshr);
+		m_pool.release(rsp);
+		r_iss_blocked = false;
+	}
+	
+
 	/**
 	 * Reads and pops the next coherence request from a ram. The request read is placed into the m_req member structure. Must be called only if
 	 * p_in_req.empty(this) == false
@@ -146,7 +216,9 @@ public class L1WtiController extends L1Controller {
 		m_req = p_in_req.front(this);
 		assert (m_req.getNwords() == 0);
 		p_in_req.popFront(this);
-		System.out.println(m_name + " gets req:\n" + m_req);
+		if (Trace.on(Level.DEBUG, m_name)) {
+			Trace.log(m_name + " gets req:\n" + m_req);
+		}
 	}
 	
 
@@ -157,7 +229,9 @@ public class L1WtiController extends L1Controller {
 	private void getResponse() {
 		m_rsp = p_in_rsp.front(this);
 		p_in_rsp.popFront(this);
-		System.out.println(m_name + " gets rsp:\n" + m_rsp);
+		if (Trace.on(Level.DEBUG, m_name)) {
+			Trace.log(m_name + " gets rsp:\n" + m_rsp);
+		}
 	}
 	
 
@@ -171,10 +245,12 @@ public class L1WtiController extends L1Controller {
 	 * @param data
 	 *            Values to update if appropriated, null otherwise
 	 */
-	private void sendRequest(long addr, cmd_t type, List<Long> data) {
-		Request req = new Request(addr, r_srcid, -1, type, m_cycle, 3, data, 0xF);
+	private void sendRequest(long addr, cmd_t type, long [] data) {
+		Request req = m_pool.alloc(addr, r_srcid, -1, type, m_cycle, 3, data, 0xF);
 		p_out_req.pushBack(req);
-		System.out.println(m_name + " sends req:\n" + req);
+		if (Trace.on(Level.DEBUG, m_name)) {
+			Trace.log(m_name + " sends req:\n" + req);
+		}
 	}
 	
 
@@ -190,12 +266,13 @@ public class L1WtiController extends L1Controller {
 	 * @param be
 	 *            Byte Enable in case of write
 	 */
-	private void sendRequest(long addr, cmd_t type, Long wdata, int be) {
-		List<Long> data = new ArrayList<Long>();
-		data.add(wdata);
-		Request req = new Request(addr, r_srcid, -1, type, m_cycle, 3, data, be);
+	private void sendRequest(long addr, cmd_t type, long wdata, int be) {
+		m_word_buf[0] = wdata;
+		Request req = m_pool.alloc(addr, r_srcid, -1, type, m_cycle, 3, m_word_buf, be);
 		p_out_req.pushBack(req);
-		System.out.println(m_name + " sends req:\n" + req);
+		if (Trace.on(Level.DEBUG, m_name)) {
+			Trace.log(m_name + " sends req:\n" + req);
+		}
 	}
 	
 
@@ -211,16 +288,17 @@ public class L1WtiController extends L1Controller {
 	 * @param rdata
 	 *            up-to-date values for the line in case of a write-back in the response, null otherwise
 	 */
-	private void sendResponse(long addr, int tgtid, cmd_t type, List<Long> rdata) {
-		Request rsp = new Request(addr, r_srcid, tgtid, type, m_cycle, 3, rdata, 0xF);
+	private void sendResponse(long addr, int tgtid, cmd_t type, long [] rdata) {
+		Request rsp = m_pool.alloc(addr, r_srcid, tgtid, type, m_cycle, 3, rdata, 0xF);
 		p_out_rsp.pushBack(rsp);
-		System.out.println(m_name + " sends rsp:\n" + rsp);
+		if (Trace.on(Level.DEBUG, m_name)) {
+			Trace.log(m_name + " sends rsp:\n" + rsp);
+		}
 	}
 	
 
 	public void simulate1Cycle() {
-		LineState state = new LineState();
-		List<Long> data = new ArrayList<Long>();
+		LineState state = m_line_state;
 
 		switch (r_fsm_state) {
 
@@ -234,6 +312,7 @@ public class L1WtiController extends L1Controller {
 					r_fsm_prev_state = FsmState.FSM_IDLE;
 					break;
 				}
+				m_pool.release(m_req); // ignored
 				/* If i'm still here I have no request from mem*/
 				/* The proc's turn now*/
 
@@ -248,30 +327,52 @@ public class L1WtiController extends L1Controller {
 			}
 
 			getIssRequest();
+			r_iss_blocked = false;
 
 			if(m_iss_req.getCmd() == cmd_t.READ_WORD){
 				
 				//System.out.println("Je read words");
 				
-				if(m_cache_l1.read(m_iss_req.getAddress(), data, state)){
-					System.out.println("HIT");
+				if(m_cache_l1.read(m_iss_req.getAddress(), m_word_buf, state)){
+					Trace.log(Level.TRACE, m_name, "HIT");
 					if( state.state == cacheSlotState.VALID){
-						sendIssResponse(m_iss_req.getAddress(), cmd_t.RSP_READ_WORD, data.get(0));
+						sendIssResponse(m_iss_req.getAddress(), cmd_t.RSP_READ_WORD, m_word_buf[0]);
 					}else if (state.state == cacheSlotState.ZOMBI){
 						r_fsm_state=FsmState.FSM_MISS;
-						System.out.println("MISS");
+						Trace.log(Level.TRACE, m_name, "MISS");
 					}
 					break;
-				}else{
+				}else if (m_mshrs == null) {
 					r_fsm_state=FsmState.FSM_MISS;
-					System.out.println("MISS");
+					Trace.log(Level.TRACE, m_name, "MISS");
+					break;
+				}else{
+					int mshr = m_mshrs.find(align(m_iss_req.getAddress()));
+					if (mshr != -1) {
+						// secondary miss
+						addMshrTarget(mshr);
+						Trace.log(Level.TRACE, m_name, "MISS MERGED");
+					}
+					else if (m_mshrs.isFull()) {
+						r_iss_blocked = true;
+						Trace.log(Level.TRACE, m_name, "MISS, NO FREE MSHR");
+					}
+					else {
+						r_fsm_state=FsmState.FSM_MISS;
+						Trace.log(Level.TRACE, m_name, "MISS");
+					}
 					break;
 				}
 			}
 
 			if(m_iss_req.getCmd() == cmd_t.WRITE_WORD){
+				if (m_mshrs != null && m_mshrs.find(align(m_iss_req.getAddress())) != -1) {
+					r_iss_blocked = true;
+					Trace.log(Level.TRACE, m_name, "WRITE ON A LINE BEING FETCHED");
+					break;
+				}
 				r_fsm_state = FsmState.FSM_SEND_WRITE;
-				System.out.println("WRITE");
+				Trace.log(Level.TRACE, m_name, "WRITE");
 				break;
 			}
 
@@ -281,7 +382,18 @@ public class L1WtiController extends L1Controller {
 
 		case FSM_INVAL:
 			assert(r_fsm_state == FsmState.FSM_INVAL);
-			CacheAccessResult res = m_cache_l1.inval(m_req.getAddress(), true);
+			CacheAccessResult res = m_cache_l1.inval(m_req.getAddress(), true, m_inval_result);
+			if (m_mshrs != null) {
+				// the line being fetched may be older than the write which caused the invalidation
+				int mshr = m_mshrs.find(m_req.getAddress());
+				if (mshr != -1) {
+					m_mshrs.setInvalidated(mshr);
+				}
+			}
+			else if (r_fsm_prev_state == FsmState.FSM_MISS_WAIT && m_req.getAddress() == align(m_iss_req.getAddress())) {
+				// same for the line of the blocking miss
+				r_miss_invalidated = true;
+			}
 			if (res.victimDirty) {
 				//System.out.println("muh dirty L1 cache invalidation");
 				sendResponse(m_req.getAddress(), m_req.getSrcid(), cmd_t.RSP_INVAL_DIRTY, m_req.getData());
@@ -290,27 +402,55 @@ public class L1WtiController extends L1Controller {
 				//System.out.println("muh clean L1 cache invalidation");
 				sendResponse(m_req.getAddress(), m_req.getSrcid(), cmd_t.RSP_INVAL_CLEAN, m_req.getData());
 			}
+			m_pool.release(m_req);
 			r_fsm_state = r_fsm_prev_state; 
 			break;
 
 		case FSM_MISS:
-			System.out.println("IN_MISS");
-			sendRequest(m_iss_req.getAddress(),cmd_t.READ_LINE, m_iss_req.getData());
-			r_fsm_state = FsmState.FSM_MISS_WAIT;
+			Trace.log(Level.TRACE, m_name, "IN_MISS");
+			sendRequest(align(m_iss_req.getAddress()), cmd_t.READ_LINE, m_iss_req.getData());
+			if (m_mshrs == null) {
+				r_miss_invalidated = false;
+				r_fsm_state = FsmState.FSM_MISS_WAIT;
+			}
+			else {
+				addMshrTarget(m_mshrs.alloc(align(m_iss_req.getAddress())));
+				r_fsm_state = FsmState.FSM_IDLE;
+			}
 			break;
 
 		case FSM_SEND_WRITE:
 			//System.out.println("in send write");
-			sendRequest(m_iss_req.getAddress(), cmd_t.WRITE_WORD, m_iss_req.getData().get(0), m_iss_req.getBe());
-			sendIssResponse(m_iss_req.getAddress(), cmd_t.RSP_WRITE_WORD, m_iss_req.getData().get(0));
+			sendRequest(m_iss_req.getAddress(), cmd_t.WRITE_WORD, m_iss_req.getData()[0], m_iss_req.getBe());
+			sendIssResponse(m_iss_req.getAddress(), cmd_t.RSP_WRITE_WORD, m_iss_req.getData()[0]);
 			r_fsm_state = FsmState.FSM_IDLE;
 			break;
 
 		case FSM_MISS_WAIT:
-			System.out.println("IN_MISS_WAIT");
+			Trace.log(Level.TRACE, m_name, "IN_MISS_WAIT");
+			// Invalidations must be served while waiting, the memory may wait for their responses before answering the miss
+			if (!p_in_req.empty(this)) {
+				getRequest();
+				if (m_req.getCmd() == cmd_t.INVAL) {
+					r_fsm_state = FsmState.FSM_INVAL;
+					r_fsm_prev_state = FsmState.FSM_MISS_WAIT;
+					break;
+				}
+				m_pool.release(m_req); // ignored
+			}
 			if (r_rsp_miss_ok){
-				System.out.println("i");
-				m_cache_l1.writeLine(m_rsp.getAddress(), m_rsp.getData(), false);
+				Trace.log(Level.TRACE, m_name, "i");
+				r_rsp_miss_ok = false;
+				if (r_miss_invalidated) {
+					// the line is not written in the cache, it only answers the processor request
+					int word = (int) ((m_iss_req.getAddress() - m_rsp_miss.getAddress()) >> 2);
+					sendIssResponse(m_iss_req.getAddress(), cmd_t.RSP_READ_WORD, m_rsp_miss.getData()[word]);
+				}
+				else {
+					m_cache_l1.writeLine(m_rsp_miss.getAddress(), m_rsp_miss.getData(), false);
+				}
+				m_pool.release(m_rsp_miss);
+				m_rsp_miss = null;
 				r_fsm_state = FsmState.FSM_IDLE;
 			}
 			break;
@@ -320,19 +460,26 @@ public class L1WtiController extends L1Controller {
 			break;
 		} // end switch(r_fsm_state)
 
-		System.out.println(m_name + " next state: " + r_fsm_state);
+		if (Trace.on(Level.TRACE, m_name)) {
+			Trace.log(m_name + " next state: " + r_fsm_state);
+		}
 
 		// Following code equivalent to a 1-state FSM executing in parallel
 		// which is in charge of consuming the responses on the p_in_rsp_port (r_fsm_rsp)
 		// and updating synchronization registers
 		if (!p_in_rsp.empty(this)) {
 			getResponse();
-			if (m_rsp.getCmd() == cmd_t.RSP_READ_LINE) {
+			if (m_rsp.getCmd() == cmd_t.RSP_READ_LINE && m_mshrs != null) {
+				fillMshr(m_rsp);
+			}
+			else if (m_rsp.getCmd() == cmd_t.RSP_READ_LINE) {
 				// Response to the miss received, we can unblock the r_fsm_state via the r_rsp_miss_ok register
+				m_rsp_miss = m_rsp;
 				r_rsp_miss_ok = true;
 			}
 			else if (m_rsp.getCmd() == cmd_t.RSP_WRITE_WORD) {
 				// Nothing special to do
+				m_pool.release(m_rsp);
 			}
 			else {
 				assert (false);
@@ -342,6 +489,21 @@ public class L1WtiController extends L1Controller {
 	}
 
 
+	public int nextEventCycle() {
+		if (!p_in_req.empty(this) || !p_in_rsp.empty(this)) {
+			return m_cycle;
+		}
+		if (r_fsm_state == FsmState.FSM_IDLE && (p_in_iss_req.empty(this) || r_iss_blocked)) {
+			return Integer.MAX_VALUE;
+		}
+		// The processor request stays in p_in_iss_req until the miss is served
+		if (r_fsm_state == FsmState.FSM_MISS_WAIT && !r_rsp_miss_ok) {
+			return Integer.MAX_VALUE;
+		}
+		return m_cycle;
+	}
+
+
 	public int getSrcid() {
 		return r_srcid;
 	}
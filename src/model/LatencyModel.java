@@ -0,0 +1,21 @@
+package model;
+
+import java.util.SplittableRandom;
+
+/**
+ * Distribution of the number of cycles a request spends in a channel, drawn by the channel when the request
+ * is pushed, from the random generator of the channel. Each sender gives a maximum delay to its requests,
+ * which the models may use or ignore; the delay drawn does not depend on anything else, so that a
+ * simulation is reproducible given the seeds of the channels.
+ * @author QLM
+ */
+public abstract class LatencyModel {
+
+	/**
+	 * @param maxDelay : maximum delay given by the sender of the request
+	 * @param rng : random generator of the channel
+	 * @return the delay of the request, in cycles
+	 */
+	public abstract int delay(int maxDelay, SplittableRandom rng);
+
+}
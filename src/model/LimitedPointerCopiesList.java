@@ -0,0 +1,131 @@
+package model;
+
+import utils.Utile;
+
+/**
+ * Limited-pointer encoding of a list of copies with broadcast on overflow (Dir_i_B):
+ * up to nbPointers srcids are recorded explicitly; when one more cache is added, the
+ * list overflows and then contains all the srcids of the range until it is emptied
+ * by removeAll(). Caches cannot be removed from an overflowed list.
+ * Layout: overflow bit, number of pointers used, then the pointers (srcid - firstId).
+ */
+public class LimitedPointerCopiesList extends CopiesList {
+
+	private final int m_nb_pointers;
+	private final int m_ptr_bits;
+	private final int m_count_bits;
+
+	public LimitedPointerCopiesList(int firstId, int nbIds, int nbPointers) {
+		super(firstId, nbIds, entryBits(nbIds, nbPointers));
+		assert (nbPointers > 0);
+		m_nb_pointers = nbPointers;
+		m_ptr_bits = fieldBits(nbIds);
+		m_count_bits = fieldBits(nbPointers + 1);
+	}
+
+	/**
+	 * @return the number of bits necessary to encode n values
+	 */
+	private static int fieldBits(int n) {
+		int bits = Utile.log2(n);
+		return (1 << bits) < n ? bits + 1 : Math.max(bits, 1);
+	}
+
+	private static int entryBits(int nbIds, int nbPointers) {
+		return 1 + fieldBits(nbPointers + 1) + nbPointers * fieldBits(nbIds);
+	}
+
+	public CopiesList newList() {
+		return new LimitedPointerCopiesList(m_first_id, m_nb_ids, m_nb_pointers);
+	}
+
+	public int entryBits() {
+		return entryBits(m_nb_ids, m_nb_pointers);
+	}
+
+	public boolean isExact() {
+		return false;
+	}
+
+	private boolean overflow() {
+		return (m_bits[0] & 1) != 0;
+	}
+
+	private int count() {
+		return (int) getField(1, m_count_bits);
+	}
+
+	private int pointer(int i) {
+		return (int) getField(1 + m_count_bits + i * m_ptr_bits, m_ptr_bits);
+	}
+
+	private void setPointer(int i, int ptr) {
+		setField(1 + m_count_bits + i * m_ptr_bits, m_ptr_bits, ptr);
+	}
+
+	private int find(int cache_id) {
+		int ptr = cache_id - m_first_id;
+		for (int i = 0; i < count(); i++) {
+			if (pointer(i) == ptr) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	void add(int cache_id) {
+		assert (inRange(cache_id));
+		if (overflow() || find(cache_id) != -1) {
+			return;
+		}
+		int n = count();
+		if (n < m_nb_pointers) {
+			setPointer(n, cache_id - m_first_id);
+			setField(1, m_count_bits, n + 1);
+		}
+		else {
+			m_bits[0] |= 1; // broadcast
+		}
+	}
+
+	void remove(int cache_id) {
+		assert (inRange(cache_id));
+		if (overflow()) {
+			return;
+		}
+		int i = find(cache_id);
+		if (i != -1) {
+			int n = count() - 1;
+			setPointer(i, pointer(n));
+			setPointer(n, 0);
+			setField(1, m_count_bits, n);
+		}
+	}
+
+	boolean hasCopy(int cache_id) {
+		if (!inRange(cache_id)) {
+			return false;
+		}
+		return overflow() || find(cache_id) != -1;
+	}
+
+	int nextOwner(int from) {
+		from = Math.max(from, m_first_id);
+		if (overflow()) {
+			return from < m_first_id + m_nb_ids ? from : -1;
+		}
+		int res = -1;
+		for (int i = 0; i < count(); i++) {
+			int id = m_first_id + pointer(i);
+			if (id >= from && (res == -1 || id < res)) {
+				res = id;
+			}
+		}
+		return res;
+	}
+
+	int nbCopies() {
+		return overflow() ? m_nb_ids : count();
+	}
+
+}
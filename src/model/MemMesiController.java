@@ -1,12 +1,13 @@
 package model;
 
-import java.util.List;
 import java.util.Vector;
 
 import utils.Utile;
 
 import model.Ram.BlockState;
 import model.Request.cmd_t;
+import utils.Trace;
+import utils.Trace.Level;
 
 /**
  * This class implements the memory controller for the MESI protocol.
@@ -59,9 +60,14 @@ public class MemMesiController implements MemController {
 	private Channel p_out_req; // coherence requests sent to caches
 	private Channel p_in_rsp; // responses to coherence requests
 	
+	private RequestPool m_pool = new RequestPool();
+	
 	private CopiesList m_req_copies_list;
 	private CopiesList m_rsp_copies_list;
 	
+	// buffer for the lines read in the ram, copied by the responses
+	private long [] m_line_buf;
+	
 	/***
 	 * FSM state
 	 */
@@ -89,8 +95,21 @@ public class MemMesiController implements MemController {
 	}
 	
 
+	/**
+	 * Builds a memory controller whose directory is a bit-vector covering all the L1 srcids.
+	 */
 	public MemMesiController(String name, int id, int nwords, Vector<Segment> seglist, Channel req_to_mem, Channel rsp_from_mem, Channel req_from_mem,
 			Channel rsp_to_mem) {
+		this(name, id, nwords, seglist, req_to_mem, rsp_from_mem, req_from_mem, rsp_to_mem,
+				new BitVectorCopiesList(L1Controller.l1StartId, memStartId - L1Controller.l1StartId));
+	}
+	
+
+	/**
+	 * @param dirFormat An empty list of copies defining the encoding of the directory; its range of srcids must contain the L1 srcids
+	 */
+	public MemMesiController(String name, int id, int nwords, Vector<Segment> seglist, Channel req_to_mem, Channel rsp_from_mem, Channel req_from_mem,
+			Channel rsp_to_mem, CopiesList dirFormat) {
 		m_srcid = id + memStartId; // id is the id among the memories
 		m_words = nwords;
 		m_name = name;
@@ -99,7 +118,10 @@ public class MemMesiController implements MemController {
 		p_out_rsp = rsp_from_mem;
 		p_out_req = req_from_mem;
 		p_in_rsp = rsp_to_mem;
-		m_ram = new Ram("Ram", nwords, seglist);
+		m_ram = new Ram("Ram", nwords, seglist, dirFormat);
+		m_req_copies_list = m_ram.newCopiesList();
+		m_rsp_copies_list = m_ram.newCopiesList();
+		m_line_buf = new long[nwords];
 		for (Segment seg : seglist) {
 			seg.setTgtid(m_srcid);
 		}
@@ -123,9 +145,14 @@ public class MemMesiController implements MemController {
 	 * p_in_req.empty(this) == false
 	 */
 	private void getRequest() {
+		if (m_req != null) {
+			m_pool.release(m_req); // the previous transaction is over since the FSM is back in FSM_IDLE
+		}
 		m_req = p_in_req.front(this);
 		p_in_req.popFront(this);
-		System.out.println(m_name + " receives req:\n" + m_req);
+		if (Trace.on(Level.DEBUG, m_name)) {
+			Trace.log(m_name + " receives req:\n" + m_req);
+		}
 	}
 	
 
@@ -134,9 +161,14 @@ public class MemMesiController implements MemController {
 	 * p_in_rsp.empty(this) == false
 	 */
 	private void getResponse() {
+		if (m_rsp != null) {
+			m_pool.release(m_rsp); // the previous response has been processed
+		}
 		m_rsp = p_in_rsp.front(this);
 		p_in_rsp.popFront(this);
-		System.out.println(m_name + " receives rsp:\n" + m_rsp);
+		if (Trace.on(Level.DEBUG, m_name)) {
+			Trace.log(m_name + " receives rsp:\n" + m_rsp);
+		}
 	}
 	
 
@@ -151,9 +183,11 @@ public class MemMesiController implements MemController {
 	 *            Type of the coherence request
 	 */
 	private void sendRequest(long addr, int targetid, cmd_t type) {
-		Request req = new Request(addr, m_srcid, targetid, type, m_cycle, 3);
+		Request req = m_pool.alloc(addr, m_srcid, targetid, type, m_cycle, 3);
 		p_out_req.pushBack(req);
-		System.out.println(m_name + " sends req:\n" + req);
+		if (Trace.on(Level.DEBUG, m_name)) {
+			Trace.log(m_name + " sends req:\n" + req);
+		}
 	}
 	
 
@@ -169,11 +203,13 @@ public class MemMesiController implements MemController {
 	 * @param rdata
 	 *            Data associated with the response (typically, copy of a line)
 	 */
-	private void sendResponse(long addr, int targetid, cmd_t type, List<Long> rdata) {
-		Request rsp = new Request(addr, m_srcid, targetid, type, m_cycle, 3, // max_duration
+	private void sendResponse(long addr, int targetid, cmd_t type, long [] rdata) {
+		Request rsp = m_pool.alloc(addr, m_srcid, targetid, type, m_cycle, 3, // max_duration
 				rdata, 0xF);
 		p_out_rsp.pushBack(rsp);
-		System.out.println(m_name + " sends rsp:\n" + rsp);
+		if (Trace.on(Level.DEBUG, m_name)) {
+			Trace.log(m_name + " sends rsp:\n" + rsp);
+		}
 	}
 	
 
@@ -263,8 +299,8 @@ public class MemMesiController implements MemController {
 			
 		
 		case FSM_INVAL:
-			m_req_copies_list = new CopiesList(m_ram.getCopies(m_req.getAddress()));
-			m_rsp_copies_list = new CopiesList(m_ram.getCopies(m_req.getAddress())); // note : il s'agit bien de m_req
+			m_ram.getCopies(m_req.getAddress(), m_req_copies_list);
+			m_ram.getCopies(m_req.getAddress(), m_rsp_copies_list); // note : il s'agit bien de m_req
 			m_req_copies_list.remove(m_req.getSrcid());
 			m_rsp_copies_list.remove(m_req.getSrcid());
 			
@@ -352,7 +388,7 @@ public class MemMesiController implements MemController {
 		{
 			if (r_rsp_full_line) {
 				r_rsp_full_line = false;
-				sendResponse(m_req.getAddress(), m_req.getSrcid(), cmd_t.RSP_GETM_LINE, m_ram.getLine(m_req.getAddress()));
+				sendResponse(m_req.getAddress(), m_req.getSrcid(), cmd_t.RSP_GETM_LINE, m_ram.getLine(m_req.getAddress(), m_line_buf));
 			}
 			else {
 				sendResponse(m_req.getAddress(), m_req.getSrcid(), cmd_t.RSP_GETM, null);
@@ -363,7 +399,7 @@ public class MemMesiController implements MemController {
 		
 
 		case FSM_RSP_READ:
-			sendResponse(m_req.getAddress(), m_req.getSrcid(), r_rsp_type, m_ram.getLine(m_req.getAddress()));
+			sendResponse(m_req.getAddress(), m_req.getSrcid(), r_rsp_type, m_ram.getLine(m_req.getAddress(), m_line_buf));
 			r_fsm_state = FsmState.FSM_IDLE;
 			break;
 		
@@ -372,12 +408,33 @@ public class MemMesiController implements MemController {
 			assert (false);
 			break;
 		} // end switch(r_fsm_state)
-		System.out.println(m_name + " next state: " + r_fsm_state);
+		if (Trace.on(Level.TRACE, m_name)) {
+			Trace.log(m_name + " next state: " + r_fsm_state);
+		}
 		
 		m_cycle++;
 	}
 	
 
+	public int nextEventCycle() {
+		if (r_fsm_state == FsmState.FSM_IDLE && p_in_req.empty(this)) {
+			return Integer.MAX_VALUE;
+		}
+		if (r_fsm_state == FsmState.FSM_INVAL_WAIT && p_in_rsp.empty(this)) {
+			return Integer.MAX_VALUE;
+		}
+		return m_cycle;
+	}
+	
+
+	public void skipCycles(int n) {
+		if (r_fsm_state == FsmState.FSM_IDLE) {
+			r_rsp_type = cmd_t.NOP; // as done by each idle cycle
+		}
+		m_cycle += n;
+	}
+	
+
 	public int getSrcid() {
 		return m_srcid;
 	}
@@ -0,0 +1,138 @@
+package model;
+
+import java.util.ArrayDeque;
+
+/**
+ * Transactions of a pipelined memory controller waiting for the responses to their invalidations: one entry per line.
+ * An entry holds the request of the transaction, the list of the caches whose response is still awaited, and the
+ * requests received on the same line meanwhile (the waiters), which are blocked until the end of the transaction
+ * while the requests on the other lines are served. When the last response of an entry is received, the entry is
+ * queued as done, so that the controller completes its transaction; the entry is freed at the end of the transaction
+ * and its waiters are then served in the order in which they were received.
+ * @author QLM
+ */
+class MemTransactionTable {
+
+	private long [] m_lines;
+	private boolean [] m_valid;
+	private Request [] m_reqs;
+	private CopiesList [] m_copies;
+	private ArrayDeque<Request> [] m_waiters;
+	private int m_nb_valid = 0;
+
+	// entries whose responses have all been received, in the order in which they were completed
+	private int [] m_done;
+	private int m_done_head = 0;
+	private int m_nb_done = 0;
+
+	/**
+	 * @param copiesFormat : list of copies used as a model for the lists of awaited responses
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	MemTransactionTable(int nbEntries, CopiesList copiesFormat) {
+		assert (nbEntries > 0);
+		m_lines = new long[nbEntries];
+		m_valid = new boolean[nbEntries];
+		m_reqs = new Request[nbEntries];
+		m_copies = new CopiesList[nbEntries];
+		m_waiters = new ArrayDeque[nbEntries];
+		m_done = new int[nbEntries];
+		for (int i = 0; i < nbEntries; i++) {
+			m_copies[i] = copiesFormat.newList();
+			m_waiters[i] = new ArrayDeque<Request>();
+		}
+	}
+
+	/**
+	 * @param line : aligned address of the line
+	 * @return the index of the entry of the line, -1 if there is no transaction on the line
+	 */
+	int find(long line) {
+		for (int i = 0; i < m_lines.length; i++) {
+			if (m_valid[i] && m_lines[i] == line) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	boolean isFull() {
+		return m_nb_valid == m_lines.length;
+	}
+
+	/**
+	 * Allocates an entry for the transaction of req on the line, which must not be full nor have an entry already
+	 * @param awaited : caches whose response is awaited, copied in the entry
+	 * @return the index of the entry
+	 */
+	int alloc(long line, Request req, CopiesList awaited) {
+		assert (find(line) == -1);
+		for (int i = 0; i < m_lines.length; i++) {
+			if (!m_valid[i]) {
+				m_valid[i] = true;
+				m_lines[i] = line;
+				m_reqs[i] = req;
+				m_copies[i].copy(awaited);
+				m_nb_valid++;
+				return i;
+			}
+		}
+		assert (false) : "no free transaction";
+		return -1;
+	}
+
+	Request getRequest(int index) {
+		return m_reqs[index];
+	}
+
+	/**
+	 * Records the response of the cache srcid; the entry is queued as done if it was the last awaited one
+	 */
+	void addResponse(int index, int srcid) {
+		assert (m_valid[index] && m_copies[index].hasCopy(srcid));
+		m_copies[index].remove(srcid);
+		if (m_copies[index].getNextOwner() == -1) {
+			m_done[(m_done_head + m_nb_done) % m_done.length] = index;
+			m_nb_done++;
+		}
+	}
+
+	boolean hasDone() {
+		return m_nb_done > 0;
+	}
+
+	/**
+	 * @return the index of the oldest entry done, removed from the done queue
+	 */
+	int pollDone() {
+		assert (m_nb_done > 0);
+		int index = m_done[m_done_head];
+		m_done_head = (m_done_head + 1) % m_done.length;
+		m_nb_done--;
+		return index;
+	}
+
+	/**
+	 * Blocks a request on the line of the entry until the end of its transaction
+	 */
+	void addWaiter(int index, Request req) {
+		assert (m_valid[index]);
+		m_waiters[index].addLast(req);
+	}
+
+	/**
+	 * Frees the entry at the end of its transaction
+	 * @param replay : queue receiving the waiters of the entry, in order
+	 */
+	void free(int index, ArrayDeque<Request> replay) {
+		assert (m_valid[index]);
+		Request req;
+		while ((req = m_waiters[index].pollFirst()) != null) {
+			replay.addLast(req);
+		}
+		m_valid[index] = false;
+		m_reqs[index] = null;
+		m_nb_valid--;
+	}
+
+}
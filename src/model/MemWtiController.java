@@ -1,13 +1,20 @@
 package model;
 
-import java.util.List;
+import java.util.ArrayDeque;
 import java.util.Vector;
 
 import utils.Utile;
 import model.Request.cmd_t;
+import utils.Trace;
+import utils.Trace.Level;
 
 /**
  * This class implements the memory controller for the WTI protocol.
+ * The controller either serves one transaction at a time, as the original one, or is pipelined with a transaction table:
+ * a write which must invalidate copies then leaves the FSM once its invalidations are sent, and waits for their
+ * responses in the table while the FSM serves the requests on the other lines. The requests on a line with a pending
+ * transaction are blocked in the table until its end. The transactions whose responses have all been received
+ * are completed by the FSM before it takes new requests.
  * 
  * @author QLM
  */
@@ -53,9 +60,14 @@ public class MemWtiController implements MemController {
 	private Channel p_out_req; // coherence requests sent to caches
 	private Channel p_in_rsp; // responses to coherence requests
 	
+	private RequestPool m_pool = new RequestPool();
+	
 	private CopiesList m_req_copies_list;
 	private CopiesList m_rsp_copies_list;
 	
+	// buffer for the lines read in the ram, copied by the responses
+	private long [] m_line_buf;
+	
 	/***
 	 * FSM state
 	 */
@@ -75,14 +87,66 @@ public class MemWtiController implements MemController {
 	 */
 	private boolean r_writer_has_copy = false;
 	
+	/**
+	 * If true, the invalidations of a line are multicast in one cycle instead of being sent one per cycle, and all the
+	 * invalidation responses received are processed in the same cycle
+	 */
+	private boolean m_multicast = false;
+	
+	/**
+	 * Timing model of the DRAM, null if the lines are read and written without delay
+	 */
+	private Dram m_dram = null;
+	
+	/**
+	 * Transactions waiting for their invalidation responses; null if the controller serves one transaction at a time
+	 */
+	private MemTransactionTable m_transactions = null;
+	/**
+	 * r_writer_has_copy of each transaction of the table
+	 */
+	private boolean [] r_trans_writer_has_copy;
+	/**
+	 * Entry of the table of the transaction served by the FSM, -1 if it has none
+	 */
+	private int r_cur_trans = -1;
+	/**
+	 * Requests which were blocked by a transaction, served before the ones of p_in_req
+	 */
+	private ArrayDeque<Request> m_replay = new ArrayDeque<Request>();
+	
 	
 	private long align(long addr) {
 		return (addr & ~((1 << (2 + Utile.log2(m_words))) - 1));
 	}
 	
 
+	/**
+	 * Builds a memory controller whose directory is a bit-vector covering all the L1 srcids.
+	 */
 	public MemWtiController(String name, int id, int nwords, Vector<Segment> seglist, Channel req_to_mem, Channel rsp_from_mem, Channel req_from_mem,
 			Channel rsp_to_mem) {
+		this(name, id, nwords, seglist, req_to_mem, rsp_from_mem, req_from_mem, rsp_to_mem,
+				new BitVectorCopiesList(L1Controller.l1StartId, memStartId - L1Controller.l1StartId));
+	}
+	
+
+	/**
+	 * @param dirFormat An empty list of copies defining the encoding of the directory; its range of srcids must contain the L1 srcids
+	 */
+	public MemWtiController(String name, int id, int nwords, Vector<Segment> seglist, Channel req_to_mem, Channel rsp_from_mem, Channel req_from_mem,
+			Channel rsp_to_mem, CopiesList dirFormat) {
+		this(name, id, nwords, seglist, req_to_mem, rsp_from_mem, req_from_mem, rsp_to_mem, dirFormat, 0);
+	}
+	
+
+	/**
+	 * @param dirFormat An empty list of copies defining the encoding of the directory; its range of srcids must contain the L1 srcids
+	 * @param nbTransactions Maximum number of transactions waiting for their invalidation responses; 0 to serve one transaction at a time
+	 */
+	public MemWtiController(String name, int id, int nwords, Vector<Segment> seglist, Channel req_to_mem, Channel rsp_from_mem, Channel req_from_mem,
+			Channel rsp_to_mem, CopiesList dirFormat, int nbTransactions) {
+		assert (nbTransactions >= 0);
 		m_srcid = id + memStartId; // Id for srcid
 		m_words = nwords;
 		m_name = name;
@@ -91,7 +155,14 @@ public class MemWtiController implements MemController {
 		p_out_rsp = rsp_from_mem;
 		p_out_req = req_from_mem;
 		p_in_rsp = rsp_to_mem;
-		m_ram = new Ram("Ram", nwords, seglist);
+		m_ram = new Ram("Ram", nwords, seglist, dirFormat);
+		m_req_copies_list = m_ram.newCopiesList();
+		m_rsp_copies_list = m_ram.newCopiesList();
+		m_line_buf = new long[nwords];
+		if (nbTransactions > 0) {
+			m_transactions = new MemTransactionTable(nbTransactions, m_rsp_copies_list);
+			r_trans_writer_has_copy = new boolean[nbTransactions];
+		}
 		for (Segment seg : seglist) {
 			seg.setTgtid(m_srcid);
 		}
@@ -103,6 +174,7 @@ public class MemWtiController implements MemController {
 
 	void reset() {
 		r_fsm_state = FsmState.FSM_IDLE;
+		r_cur_trans = -1;
 		m_cycle = 0;
 	}
 	
@@ -112,9 +184,14 @@ public class MemWtiController implements MemController {
 	 * p_in_req.empty(this) == false
 	 */
 	private void getRequest() {
+		if (m_req != null) {
+			m_pool.release(m_req); // the previous transaction is over since the FSM is back in FSM_IDLE
+		}
 		m_req = p_in_req.front(this);
 		p_in_req.popFront(this);
-		System.out.println(m_name + " receives req:\n" + m_req);
+		if (Trace.on(Level.DEBUG, m_name)) {
+			Trace.log(m_name + " receives req:\n" + m_req);
+		}
 	}
 	
 
@@ -123,9 +200,14 @@ public class MemWtiController implements MemController {
 	 * p_in_rsp.empty(this) == false
 	 */
 	private void getResponse() {
+		if (m_rsp != null) {
+			m_pool.release(m_rsp); // the previous response has been processed
+		}
 		m_rsp = p_in_rsp.front(this);
 		p_in_rsp.popFront(this);
-		System.out.println(m_name + " receives rsp:\n" + m_rsp);
+		if (Trace.on(Level.DEBUG, m_name)) {
+			Trace.log(m_name + " receives rsp:\n" + m_rsp);
+		}
 	}
 	
 
@@ -140,9 +222,63 @@ public class MemWtiController implements MemController {
 	 *            Type of the coherence request
 	 */
 	private void sendRequest(long addr, int targetid, cmd_t type) {
-		Request req = new Request(addr, m_srcid, targetid, type, m_cycle, 3);
+		Request req = m_pool.alloc(addr, m_srcid, targetid, type, m_cycle, 3);
 		p_out_req.pushBack(req);
-		System.out.println(m_name + " sends req:\n" + req);
+		if (Trace.on(Level.DEBUG, m_name)) {
+			Trace.log(m_name + " sends req:\n" + req);
+		}
+	}
+	
+
+	/**
+	 * Sends a coherence request to all the L1 caches of targets in a single cycle
+	 */
+	private void sendMulticast(long addr, CopiesList targets, cmd_t type) {
+		Request req = m_pool.alloc(addr, m_srcid, -1, type, m_cycle, 3);
+		if (Trace.on(Level.DEBUG, m_name)) {
+			Trace.log(m_name + " multicasts req to " + targets.nbCopies() + " caches:\n" + req);
+		}
+		p_out_req.multicast(req, targets, m_pool);
+	}
+	
+
+	/**
+	 * Makes the controller multicast its invalidations and aggregate their responses (false by default)
+	 */
+	public void setMulticast(boolean multicast) {
+		m_multicast = multicast;
+	}
+	
+
+	/**
+	 * Times the accesses to the lines with a DRAM model: the responses carrying or acknowledging data are sent
+	 * when the DRAM completes their access; the requests on a line wait until
+	 * the responses on the line have left the DRAM
+	 * @param dram : the model, or null for accesses without delay (default)
+	 */
+	public void setDram(Dram dram) {
+		m_dram = dram;
+	}
+	
+
+	/**
+	 * @return true if the DRAM has not sent yet a response on the line of req: the request waits for it, so that an
+	 *         invalidation of the line cannot be sent before the copy recorded in the directory has left
+	 */
+	private boolean waitsForDram(Request req) {
+		return m_dram != null && m_dram.hasPendingResponse(align(req.getAddress()));
+	}
+	
+
+	/**
+	 * Sends the response of the access completed by the DRAM, if any, then lets the DRAM issue an access
+	 */
+	private void simulateDram() {
+		if (m_dram.hasResponse(m_cycle)) {
+			sendResponse(m_dram.getResponseAddress(), m_dram.getResponseTgtid(), m_dram.getResponseCmd(), m_dram.getResponseData());
+			m_dram.popResponse();
+		}
+		m_dram.simulate1Cycle(m_cycle);
 	}
 	
 
@@ -158,23 +294,136 @@ public class MemWtiController implements MemController {
 	 * @param rdata
 	 *            Data associated with the response (typically, copy of a line)
 	 */
-	private void sendResponse(long addr, int targetid, cmd_t type, List<Long> rdata) {
-		Request rsp = new Request(addr, m_srcid, targetid, type, m_cycle, 3, // max_duration
+	private void sendResponse(long addr, int targetid, cmd_t type, long [] rdata) {
+		Request rsp = m_pool.alloc(addr, m_srcid, targetid, type, m_cycle, 3, // max_duration
 				rdata, 0xF);
 		p_out_rsp.pushBack(rsp);
-		System.out.println(m_name + " sends rsp:\n" + rsp);
+		if (Trace.on(Level.DEBUG, m_name)) {
+			Trace.log(m_name + " sends rsp:\n" + rsp);
+		}
+	}
+	
+
+	/**
+	 * Takes the next request to serve in a pipelined controller: the FSM completes the transactions done first,
+	 * then serves the blocked requests, then the new ones. Returns with m_req set and the FSM still idle
+	 * if the request is to be served from the start
+	 * @return false if there is no request to serve
+	 */
+	private boolean getNextTransaction() {
+		if (m_req != null) {
+			// the previous transaction is over
+			m_pool.release(m_req);
+			m_req = null;
+		}
+		if (r_cur_trans != -1) {
+			m_transactions.free(r_cur_trans, m_replay);
+			r_cur_trans = -1;
+		}
+		if (m_transactions.hasDone()) {
+			r_cur_trans = m_transactions.pollDone();
+			m_req = m_transactions.getRequest(r_cur_trans);
+			r_writer_has_copy = r_trans_writer_has_copy[r_cur_trans];
+			r_fsm_state = FsmState.FSM_DIR_UPDATE;
+			return false;
+		}
+		Request req = nextRequest();
+		if (req == null || (m_transactions.isFull() && needsTransaction(req))) {
+			// with a full table, only the requests which do not need an entry are served
+			return false;
+		}
+		if (req == m_replay.peekFirst()) {
+			m_replay.pollFirst();
+		}
+		else {
+			p_in_req.popFront(this);
+			if (Trace.on(Level.DEBUG, m_name)) {
+				Trace.log(m_name + " receives req:\n" + req);
+			}
+		}
+		int trans = m_transactions.find(align(req.getAddress()));
+		if (trans != -1) {
+			m_transactions.addWaiter(trans, req);
+			return false;
+		}
+		if (waitsForDram(req)) {
+			// taken again from the replay queue at the next cycle
+			m_replay.addFirst(req);
+			return false;
+		}
+		m_req = req;
+		return true;
+	}
+	
+
+	/**
+	 * @return the next request to serve in a pipelined controller, left in its queue: the oldest blocked request,
+	 *         else the oldest new one; null if none
+	 */
+	private Request nextRequest() {
+		Request req = m_replay.peekFirst();
+		if (req == null && !p_in_req.empty(this)) {
+			req = p_in_req.front(this);
+		}
+		return req;
+	}
+	
+
+	/**
+	 * Computes the copies as in FSM_INVAL, which needs an entry in the table when invalidations are sent;
+	 * the requests on a line with a transaction only become its waiters
+	 * @return true if serving req would allocate an entry of the table
+	 */
+	private boolean needsTransaction(Request req) {
+		if (req.getCmd() != cmd_t.WRITE_WORD || m_transactions.find(align(req.getAddress())) != -1) {
+			return false;
+		}
+		m_ram.getCopies(req.getAddress(), m_req_copies_list);
+		m_req_copies_list.remove(req.getSrcid());
+		return m_req_copies_list.nbCopies() != 0;
+	}
+	
+
+	/**
+	 * Receives an invalidation response in a pipelined controller, whatever the state of the FSM,
+	 * or all the responses received with multicast
+	 */
+	private void receiveTransactionResponses() {
+		while (!p_in_rsp.empty(this)) {
+			getResponse();
+			int trans = m_transactions.find(align(m_rsp.getAddress()));
+			assert (trans != -1);
+			m_transactions.addResponse(trans, m_rsp.getSrcid());
+			if (!m_multicast) {
+				break;
+			}
+		}
 	}
 	
 
 	public void simulate1Cycle() {
 		
+		if (m_dram != null) {
+			simulateDram();
+		}
+		if (m_transactions != null) {
+			receiveTransactionResponses();
+		}
+		
 		switch (r_fsm_state) {
 		
 		case FSM_IDLE:
-			if (p_in_req.empty(this)) {
-				break;
+			if (m_transactions != null) {
+				if (!getNextTransaction()) {
+					break;
+				}
+			}
+			else {
+				if (p_in_req.empty(this) || waitsForDram(p_in_req.front(this))) {
+					break;
+				}
+				getRequest();
 			}
-			getRequest();
 			
 			assert (m_req.getNwords() == m_words || m_req.getNwords() == 1 || m_req.getNwords() == 0);
 			assert (m_ram.containsAddr(m_req.getAddress()));
@@ -182,7 +431,7 @@ public class MemWtiController implements MemController {
 			
 			if (m_req.getCmd() == cmd_t.WRITE_WORD) {
 				assert (m_req.getNwords() == 1);
-                m_ram.write(m_req.getAddress(), m_req.getData().get(0), m_req.getBe());
+                m_ram.write(m_req.getAddress(), m_req.getData()[0], m_req.getBe());
                 r_fsm_state = FsmState.FSM_INVAL;
 			}
 			else if (m_req.getCmd() == cmd_t.READ_LINE) {
@@ -195,8 +444,8 @@ public class MemWtiController implements MemController {
 		
 
 		case FSM_INVAL:
-			m_req_copies_list = new CopiesList(m_ram.getCopies(m_req.getAddress()));
-			m_rsp_copies_list = new CopiesList(m_ram.getCopies(m_req.getAddress())); // note : il s'agit bien de m_req
+			m_ram.getCopies(m_req.getAddress(), m_req_copies_list);
+			m_ram.getCopies(m_req.getAddress(), m_rsp_copies_list); // note : il s'agit bien de m_req
 			
 			// We remember whether the writer had a copy for the future directory update
 			r_writer_has_copy = m_req_copies_list.hasCopy(m_req.getSrcid()); 
@@ -208,25 +457,44 @@ public class MemWtiController implements MemController {
 				r_fsm_state = FsmState.FSM_RSP_WRITE;
 			}
 			else {
+				if (m_transactions != null) {
+					r_cur_trans = m_transactions.alloc(align(m_req.getAddress()), m_req, m_rsp_copies_list);
+					r_trans_writer_has_copy[r_cur_trans] = r_writer_has_copy;
+				}
 				r_fsm_state = FsmState.FSM_INVAL_SEND;
 			}
 			break;
 		
 
 		case FSM_INVAL_SEND:
-			int targetid = m_req_copies_list.getNextOwner();
-			m_req_copies_list.remove(targetid);
 			// We align the address for the invalidation request
-			sendRequest(align(m_req.getAddress()), targetid, cmd_t.INVAL);
+			if (m_multicast) {
+				sendMulticast(align(m_req.getAddress()), m_req_copies_list, cmd_t.INVAL);
+				m_req_copies_list.removeAll();
+			}
+			else {
+				int targetid = m_req_copies_list.getNextOwner();
+				m_req_copies_list.remove(targetid);
+				sendRequest(align(m_req.getAddress()), targetid, cmd_t.INVAL);
+			}
 			
 			if (m_req_copies_list.nbCopies() == 0) {
-				r_fsm_state = FsmState.FSM_INVAL_WAIT;
+				if (m_transactions != null) {
+					// the transaction waits for its responses in the table
+					m_req = null;
+					r_cur_trans = -1;
+					r_fsm_state = FsmState.FSM_IDLE;
+				}
+				else {
+					r_fsm_state = FsmState.FSM_INVAL_WAIT;
+				}
 			}
 			break;
 		
 
 		case FSM_INVAL_WAIT:
-			if (!p_in_rsp.empty(this)) {
+			// with multicast, all the responses received are processed in the same cycle
+			while (!p_in_rsp.empty(this)) {
 				getResponse();
 				assert (align(m_rsp.getAddress()) == align(m_req.getAddress()));
 				assert (m_rsp_copies_list.hasCopy(m_rsp.getSrcid()));
@@ -234,6 +502,10 @@ public class MemWtiController implements MemController {
 				
 				if (m_rsp_copies_list.nbCopies() == 0) {
 					r_fsm_state = FsmState.FSM_DIR_UPDATE;
+					break;
+				}
+				if (!m_multicast) {
+					break;
 				}
 			}
 			break;
@@ -256,14 +528,31 @@ public class MemWtiController implements MemController {
 		
 
 		case FSM_RSP_READ:
-			sendResponse(m_req.getAddress(), m_req.getSrcid(), cmd_t.RSP_READ_LINE, m_ram.getLine(m_req.getAddress()));
+			if (m_dram != null) {
+				if (m_dram.isFull()) {
+					break;
+				}
+				m_dram.read(m_req.getAddress(), m_req.getSrcid(), cmd_t.RSP_READ_LINE, m_ram.getLine(m_req.getAddress(), m_line_buf));
+			}
+			else {
+				sendResponse(m_req.getAddress(), m_req.getSrcid(), cmd_t.RSP_READ_LINE, m_ram.getLine(m_req.getAddress(), m_line_buf));
+			}
 			r_fsm_state = FsmState.FSM_IDLE;
 			break;
 		
 
 		case FSM_RSP_WRITE:
-			// We can respond now
-			sendResponse(m_req.getAddress(), m_req.getSrcid(), cmd_t.RSP_WRITE_WORD, null);
+			if (m_dram != null) {
+				// the response is sent once the word is written in the DRAM
+				if (m_dram.isFull()) {
+					break;
+				}
+				m_dram.write(m_req.getAddress(), m_req.getSrcid(), cmd_t.RSP_WRITE_WORD);
+			}
+			else {
+				// We can respond now
+				sendResponse(m_req.getAddress(), m_req.getSrcid(), cmd_t.RSP_WRITE_WORD, null);
+			}
 			r_fsm_state = FsmState.FSM_IDLE;
 			break;
 		
@@ -272,12 +561,52 @@ public class MemWtiController implements MemController {
 			assert (false);
 			break;
 		} // end switch(r_fsm_state)
-		System.out.println(m_name + " next state: " + r_fsm_state);
+		if (Trace.on(Level.TRACE, m_name)) {
+			Trace.log(m_name + " next state: " + r_fsm_state);
+		}
 		
 		m_cycle++;
 	}
 	
 
+	public int nextEventCycle() {
+		int next = nextFsmEventCycle();
+		if (m_dram != null) {
+			next = Math.min(next, m_dram.nextEventCycle(m_cycle));
+		}
+		return next;
+	}
+	
+
+	private int nextFsmEventCycle() {
+		if (m_transactions != null) {
+			if (!p_in_rsp.empty(this) || r_fsm_state != FsmState.FSM_IDLE || m_transactions.hasDone()) {
+				return m_cycle;
+			}
+			if (r_cur_trans != -1) {
+				return m_cycle;
+			}
+			Request req = nextRequest();
+			if (req != null && (!m_transactions.isFull() || !needsTransaction(req))) {
+				return m_cycle;
+			}
+			return Integer.MAX_VALUE;
+		}
+		if (r_fsm_state == FsmState.FSM_IDLE && p_in_req.empty(this)) {
+			return Integer.MAX_VALUE;
+		}
+		if (r_fsm_state == FsmState.FSM_INVAL_WAIT && p_in_rsp.empty(this)) {
+			return Integer.MAX_VALUE;
+		}
+		return m_cycle;
+	}
+	
+
+	public void skipCycles(int n) {
+		m_cycle += n;
+	}
+	
+
 	public int getSrcid() {
 		return m_srcid;
 	}
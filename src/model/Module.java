@@ -14,4 +14,16 @@ public interface Module {
 	
 	public void simulate1Cycle();
 	
+	/**
+	 * @return the first cycle, not before the current one, at which the module can change state if no new
+	 *         request is delivered on its inputs; Integer.MAX_VALUE if it is idle until such a request arrives
+	 */
+	public int nextEventCycle();
+	
+	/**
+	 * Advances the module by n cycles during which it is idle, i.e. cycles before nextEventCycle()
+	 * @param n
+	 */
+	public void skipCycles(int n);
+	
 }
@@ -0,0 +1,109 @@
+package model;
+
+import java.util.ArrayDeque;
+
+/**
+ * Miss status holding registers of a non-blocking L1 cache: one entry per line being fetched from the memory.
+ * An entry holds the processor requests waiting for the line (the targets): the one which caused the miss and
+ * the secondary misses on the same line, merged into the entry instead of sending another request.
+ * An entry is marked invalidated when an invalidation of its line is received before the line itself, in which case
+ * the line must not be written in the cache when it arrives, but can still be used to answer the targets.
+ * @author QLM
+ */
+class MshrTable {
+
+	private long [] m_lines;
+	private boolean [] m_valid;
+	private boolean [] m_invalidated;
+	private ArrayDeque<Request> [] m_targets;
+	private int m_nb_valid = 0;
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	MshrTable(int nbEntries) {
+		assert (nbEntries > 0);
+		m_lines = new long[nbEntries];
+		m_valid = new boolean[nbEntries];
+		m_invalidated = new boolean[nbEntries];
+		m_targets = new ArrayDeque[nbEntries];
+		for (int i = 0; i < nbEntries; i++) {
+			m_targets[i] = new ArrayDeque<Request>();
+		}
+	}
+
+	/**
+	 * @param line : aligned address of the line
+	 * @return the index of the entry of the line, -1 if the line is not being fetched
+	 */
+	int find(long line) {
+		for (int i = 0; i < m_lines.length; i++) {
+			if (m_valid[i] && m_lines[i] == line) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	boolean isFull() {
+		return m_nb_valid == m_lines.length;
+	}
+
+	boolean isEmpty() {
+		return m_nb_valid == 0;
+	}
+
+	/**
+	 * @return the number of lines being fetched
+	 */
+	int getNbPending() {
+		return m_nb_valid;
+	}
+
+	/**
+	 * Allocates an entry for the line, which must not be full nor have an entry already
+	 * @return the index of the entry
+	 */
+	int alloc(long line) {
+		assert (find(line) == -1);
+		for (int i = 0; i < m_lines.length; i++) {
+			if (!m_valid[i]) {
+				m_valid[i] = true;
+				m_invalidated[i] = false;
+				m_lines[i] = line;
+				m_nb_valid++;
+				return i;
+			}
+		}
+		assert (false) : "no free MSHR";
+		return -1;
+	}
+
+	void addTarget(int index, Request req) {
+		assert (m_valid[index]);
+		m_targets[index].addLast(req);
+	}
+
+	/**
+	 * @return the oldest target of the entry, removed from it, or null if there is none left
+	 */
+	Request pollTarget(int index) {
+		return m_targets[index].pollFirst();
+	}
+
+	void setInvalidated(int index) {
+		m_invalidated[index] = true;
+	}
+
+	boolean isInvalidated(int index) {
+		return m_invalidated[index];
+	}
+
+	/**
+	 * Frees the entry, whose targets must all have been answered
+	 */
+	void free(int index) {
+		assert (m_valid[index] && m_targets[index].isEmpty());
+		m_valid[index] = false;
+		m_nb_valid--;
+	}
+
+}
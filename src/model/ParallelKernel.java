@@ -0,0 +1,116 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Simulates one cycle of a set of modules and channels on a fork-join pool.
+ * A cycle is made of three phases:
+ *  - evaluate: all the modules are simulated in parallel; their writes on the channels are staged
+ *    in a ChannelWriteBuffer per module (modules only read their own channel outputs, which are
+ *    not modified before the channels are simulated)
+ *  - commit: the staged writes are applied module after module, in the order of the module list,
+ *    i.e. in the order in which the sequential topcell simulates them
+ *  - channels: the channels, which do not share any state, are simulated in parallel
+ * The result is thus identical to the sequential simulation of the modules then of the channels.
+ */
+public class ParallelKernel {
+
+	/**
+	 * Number of modules (or channels) below which a task is not split anymore
+	 */
+	private static final int sequentialThreshold = 4;
+
+	private ForkJoinPool m_pool;
+	private List<Module> m_modules;
+	private List<Channel> m_channels;
+	private List<ChannelWriteBuffer> m_buffers;
+
+	/**
+	 * @param modules : the modules, in the order in which the sequential simulation would run them
+	 * @param channels : the channels written and read by these modules
+	 * @param pool : the pool on which the cycles are run
+	 */
+	public ParallelKernel(List<? extends Module> modules, List<Channel> channels, ForkJoinPool pool) {
+		m_pool = pool;
+		m_modules = new ArrayList<Module>(modules);
+		m_channels = new ArrayList<Channel>(channels);
+		m_buffers = new ArrayList<ChannelWriteBuffer>();
+		for (int i = 0; i < m_modules.size(); i++) {
+			m_buffers.add(new ChannelWriteBuffer());
+		}
+	}
+
+
+	public void simulate1Cycle() {
+		m_pool.invoke(new EvaluateTask(0, m_modules.size()));
+		for (ChannelWriteBuffer buf : m_buffers) {
+			buf.commit();
+		}
+		m_pool.invoke(new ChannelTask(0, m_channels.size()));
+	}
+
+
+	private class EvaluateTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private int m_from;
+		private int m_to;
+
+		EvaluateTask(int from, int to) {
+			m_from = from;
+			m_to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (m_to - m_from <= sequentialThreshold) {
+				for (int i = m_from; i < m_to; i++) {
+					ChannelWriteBuffer buf = m_buffers.get(i);
+					buf.install();
+					try {
+						m_modules.get(i).simulate1Cycle();
+					}
+					finally {
+						buf.uninstall();
+					}
+				}
+			}
+			else {
+				int mid = (m_from + m_to) >>> 1;
+				invokeAll(new EvaluateTask(m_from, mid), new EvaluateTask(mid, m_to));
+			}
+		}
+	}
+
+
+	private class ChannelTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private int m_from;
+		private int m_to;
+
+		ChannelTask(int from, int to) {
+			m_from = from;
+			m_to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (m_to - m_from <= sequentialThreshold) {
+				for (int i = m_from; i < m_to; i++) {
+					m_channels.get(i).simulate1Cycle();
+				}
+			}
+			else {
+				int mid = (m_from + m_to) >>> 1;
+				invokeAll(new ChannelTask(m_from, mid), new ChannelTask(mid, m_to));
+			}
+		}
+	}
+
+}
@@ -1,12 +1,24 @@
 package model;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 
 import model.Request.cmd_t;
+import utils.Trace;
+import utils.Trace.Level;
 
 /**
- * This class implements a basic ISS only capable of issuing reads and writes
+ * This class implements a basic ISS only capable of issuing reads and writes.
+ * The requests are either queued by hand with addRead() and addWrite(), or replayed from an access trace set with
+ * setTrace(): the accesses of the trace are then read one at a time, when they can be issued, so that the trace
+ * is never loaded in memory.
+ * The accesses of the trace go through a load/store window of maxPending entries: each access issued takes a free
+ * entry, whose index is the tag of its request, and keeps it until the response carrying this tag is received.
+ * The responses can thus arrive in any order, e.g. a hit answered by a non-blocking L1 before an older miss.
+ * Up to issueWidth accesses are issued per cycle, in the order of the trace: an access is issued when the gap since
+ * the previous one has elapsed, an entry is free, and it does not depend on an access in the window, i.e. it does not
+ * access the same word as a pending write, nor write the same word as a pending read. Up to issueWidth responses
+ * are received per cycle.
  * @author QLM
  *
  */
@@ -21,6 +33,34 @@ public class Processor implements Module {
 
 	private Channel p_out_req;
 	private Channel p_in_rsp;
+	
+	// buffer for the data of the write requests, copied by the request
+	private long [] m_wdata = new long[1];
+
+	// maximum number of requests issued and of responses received per cycle
+	private int m_issue_width = 1;
+	
+	private RequestPool m_pool = new RequestPool();
+	
+	// access trace replayed, null if none or if it is finished
+	private AccessTraceReader m_trace = null;
+	private int m_max_pending;
+	// true if the current access of m_trace has not been issued yet
+	private boolean r_trace_valid = false;
+	// first cycle at which the current access of m_trace can be issued
+	private int r_trace_cycle;
+
+	// load/store window, indexed by tag
+	private boolean [] r_win_valid;
+	private long [] r_win_word;
+	private boolean [] r_win_write;
+	// free entries of the window
+	private int [] m_win_free;
+	private int m_nb_win_free;
+	// issue order of the accesses of the window, to count the responses received out of order
+	private long [] r_win_seq;
+	private long r_issue_seq = 0;
+	private long m_nb_out_of_order = 0;
 
 	public Processor(String name, int id, Channel req_from_iss, Channel rsp_to_iss) {
 		m_name = name;
@@ -33,38 +73,186 @@ public class Processor implements Module {
 	}
 
 	public void addRead(long addr) {
-		Request req = new Request(addr, m_id, m_id + L1MesiController.l1StartId, cmd_t.READ_WORD, r_cycle, 0, null,	0xF);
-		p_out_req.pushBack(req);
-		r_nb_req++;
+		sendRequest(addr, cmd_t.READ_WORD, null, -1);
 	}
 
 	public void addWrite(long addr, long data) {
-		List<Long> l = new ArrayList<Long>();
-		l.add(data);
-		Request req = new Request(addr, m_id, m_id + L1MesiController.l1StartId, cmd_t.WRITE_WORD, r_cycle, 0, l, 0xF);
+		m_wdata[0] = data;
+		sendRequest(addr, cmd_t.WRITE_WORD, m_wdata, -1);
+	}
+
+	private void sendRequest(long addr, cmd_t cmd, long [] data, int tag) {
+		Request req = m_pool.alloc(addr, m_id, m_id + L1MesiController.l1StartId, cmd, r_cycle, 0, data, 0xF);
+		req.setTag(tag);
 		p_out_req.pushBack(req);
 		r_nb_req++;
 	}
 
+	/**
+	 * Replays the accesses of the trace, in addition to the requests queued by hand; the processor
+	 * can only stop when the trace is finished
+	 * @param trace
+	 * @param maxPending : maximum number of requests waiting for their response, at least 1
+	 * @throws IOException if the trace cannot be read
+	 */
+	public void setTrace(AccessTraceReader trace, int maxPending) throws IOException {
+		setTrace(trace, maxPending, 1);
+	}
+
+	/**
+	 * Replays the accesses of the trace, in addition to the requests queued by hand; the processor
+	 * can only stop when the trace is finished
+	 * @param trace
+	 * @param maxPending : size of the load/store window, i.e. maximum number of requests waiting for their response, at least 1
+	 * @param issueWidth : maximum number of requests issued and of responses received per cycle, at least 1
+	 * @throws IOException if the trace cannot be read
+	 */
+	public void setTrace(AccessTraceReader trace, int maxPending, int issueWidth) throws IOException {
+		assert (maxPending >= 1 && issueWidth >= 1);
+		m_trace = trace;
+		m_max_pending = maxPending;
+		m_issue_width = issueWidth;
+		r_win_valid = new boolean[maxPending];
+		r_win_word = new long[maxPending];
+		r_win_write = new boolean[maxPending];
+		r_win_seq = new long[maxPending];
+		m_win_free = new int[maxPending];
+		for (int i = 0; i < maxPending; i++) {
+			m_win_free[i] = maxPending - 1 - i;
+		}
+		m_nb_win_free = maxPending;
+		r_trace_valid = false;
+		nextTraceAccess(r_cycle);
+	}
+
+	/**
+	 * @return the number of responses to trace accesses received before the response to an older access
+	 */
+	public long getNbOutOfOrder() {
+		return m_nb_out_of_order;
+	}
+
+	/**
+	 * Reads the next access of the trace, to be issued at the earliest gap cycles after lastIssue
+	 */
+	private void nextTraceAccess(int lastIssue) throws IOException {
+		r_trace_valid = m_trace.next();
+		if (r_trace_valid) {
+			r_trace_cycle = lastIssue + m_trace.getGap();
+		}
+		else {
+			m_trace.close();
+			m_trace = null;
+		}
+	}
+
+	/**
+	 * @return true if the current access of the trace has an entry in the window and does not depend on a pending access
+	 */
+	private boolean traceAccessReady() {
+		if (m_nb_win_free == 0) {
+			return false;
+		}
+		long word = m_trace.getAddress() & ~3L;
+		boolean write = m_trace.isWrite();
+		for (int i = 0; i < m_max_pending; i++) {
+			if (r_win_valid[i] && r_win_word[i] == word && (write || r_win_write[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Issues the accesses of the trace which can be issued during the current cycle
+	 */
+	private void issueTraceAccesses() {
+		for (int n = 0; n < m_issue_width; n++) {
+			if (!r_trace_valid || r_cycle < r_trace_cycle || !traceAccessReady()) {
+				return;
+			}
+			int tag = m_win_free[--m_nb_win_free];
+			r_win_valid[tag] = true;
+			r_win_word[tag] = m_trace.getAddress() & ~3L;
+			r_win_write[tag] = m_trace.isWrite();
+			r_win_seq[tag] = r_issue_seq++;
+			if (m_trace.isWrite()) {
+				m_wdata[0] = m_trace.getData();
+				sendRequest(m_trace.getAddress(), cmd_t.WRITE_WORD, m_wdata, tag);
+			}
+			else {
+				sendRequest(m_trace.getAddress(), cmd_t.READ_WORD, null, tag);
+			}
+			try {
+				nextTraceAccess(r_cycle);
+			}
+			catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/**
+	 * Frees the window entry of the response
+	 */
+	private void retire(Request rsp) {
+		int tag = rsp.getTag();
+		if (tag == -1) {
+			// request queued by hand
+			return;
+		}
+		assert (r_win_valid[tag]);
+		for (int i = 0; i < m_max_pending; i++) {
+			if (r_win_valid[i] && r_win_seq[i] < r_win_seq[tag]) {
+				m_nb_out_of_order++;
+				break;
+			}
+		}
+		r_win_valid[tag] = false;
+		m_win_free[m_nb_win_free++] = tag;
+	}
+
 	void addNop() {
-		Request req = new Request(0, m_id, m_id + L1MesiController.l1StartId, cmd_t.NOP, r_cycle, 0, null, 0xF);
+		Request req = m_pool.alloc(0, m_id, m_id + L1MesiController.l1StartId, cmd_t.NOP, r_cycle, 0, null, 0xF);
 		p_out_req.pushBack(req);
 		r_nb_req++;
 	}
 
 	public void simulate1Cycle() {
-		if (!p_in_rsp.empty(this)) {
+		for (int n = 0; n < m_issue_width && !p_in_rsp.empty(this); n++) {
 			Request r = p_in_rsp.front(this);
-			System.out.println(m_name + " received response: \n" + r);
+			if (Trace.on(Level.DEBUG, m_name)) {
+				Trace.log(m_name + " received response: \n" + r);
+			}
 			p_in_rsp.popFront(this);
+			retire(r);
+			m_pool.release(r);
 			r_nb_rsp++;
 		}
+		issueTraceAccesses();
 		r_cycle++;
 	}
 
 	
+	public int nextEventCycle() {
+		if (!p_in_rsp.empty(this)) {
+			return r_cycle;
+		}
+		if (r_trace_valid && traceAccessReady()) {
+			return Math.max(r_cycle, r_trace_cycle);
+		}
+		return Integer.MAX_VALUE;
+	}
+	
+	
+	public void skipCycles(int n) {
+		r_cycle += n;
+	}
+	
+	
 	public boolean stopOk() {
-		return p_out_req.empty(this) && r_nb_rsp == r_nb_req;
+		// p_out_req is read by the L1 controller, the processor is not registered on its outputs
+		return r_nb_rsp == r_nb_req && !r_trace_valid;
 	}
 	
 	
@@ -1,13 +1,19 @@
 package model;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Vector;
 
 import utils.Utile;
+import utils.Trace;
+import utils.Trace.Level;
 
 /**
  * Simple class for a memory constituted of segments. It provides facilities to access data and metadata.
+ * The data are stored in a SparseMemory per segment, so that the memory used depends on the pages
+ * written and not on the size of the segments.
+ * The directory entry of a line (list of copies and state) is packed in a few longs of a SparseMemory per segment:
+ * the list of copies is encoded as defined by the directory format given at construction (see CopiesList),
+ * immediately followed by the BlockState ordinal. The entries are read into and written from a single
+ * CopiesList, so that the directory is accessed without allocating objects.
  * @author QLM
  *
  */
@@ -17,26 +23,48 @@ public class Ram {
 	 * Block states.
 	 * It is possible to use only one of the Exclusive and Modified states in the write-back implementation.
 	 * The ZOMBIE state should not be used here.
+	 * VALID comes first since it is the initial state of the lines: a directory entry equal to 0 is VALID with no copy.
 	 */
 	enum BlockState {
-		INVALID, VALID, EXCLUSIVE, MODIFIED, ZOMBIE,
+		VALID, INVALID, EXCLUSIVE, MODIFIED, ZOMBIE,
 	}
 	
+	private static final BlockState [] blockStates = BlockState.values();
+	
+	/**
+	 * Number of bits of the state field of a directory entry
+	 */
+	private static final int stateBits = 3;
+	private static final long stateMask = (1L << stateBits) - 1;
+	
 	int m_id; // @QM unused
 	private int m_words;
 	private int m_nbseg;
 	
 	private Vector<Segment> m_seglist;
-	private Vector<long []> m_ram;
+	private SegmentTable m_segtable;
+	private Vector<SparseMemory> m_ram;
 	private long [] m_nbsets;
 	
-	private Vector<CopiesList []> r_copies;
-	private Vector<BlockState []> r_state;
+	// packed directory entries, m_dir_stride words per line
+	private Vector<SparseMemory> r_dir;
+	private int m_dir_stride;
+	// position of the state field in an entry
+	private int m_state_word;
+	private int m_state_shift;
+	
+	// entry of the line last accessed
+	private CopiesList m_entry;
+	private SparseMemory m_entry_dir;
+	private int m_entry_base;
 	
 	private AddressMaskingTable m_y;
 	
 	
-	public Ram(String name, int nwords, Vector<Segment> seglist) {
+	/**
+	 * @param dirFormat An empty list of copies defining the encoding used in the directory
+	 */
+	public Ram(String name, int nwords, Vector<Segment> seglist, CopiesList dirFormat) {
 		m_seglist = seglist;
 		m_words = nwords;
 		m_nbseg = seglist.size();
@@ -44,26 +72,31 @@ public class Ram {
 				Utile.log2(nwords) + 2);
 		
 		assert (!seglist.isEmpty()) : "Ram error : no segment allocated";
+		m_segtable = new SegmentTable(seglist);
+		
+		// the state field is aligned on 4 bits so that it never spans two words
+		int statePos = (dirFormat.entryBits() + 3) & ~3;
+		m_state_word = statePos >>> 6;
+		m_state_shift = statePos & 63;
+		m_dir_stride = m_state_word + 1;
+		m_entry = dirFormat.newList();
 		
 		for (Segment seg : m_seglist) {
-			System.out.println(seg);
+			if (Trace.on(Level.INFO, "Ram")) {
+				Trace.log(seg.toString());
+			}
 		}
 		
-		// memory allocation
-		m_ram = new Vector<long []>();
+		// memory allocation: only the page tables, pages are allocated on demand
+		m_ram = new Vector<SparseMemory>();
 		m_nbsets = new long[m_nbseg];
-		r_copies = new Vector<CopiesList []>();
-		r_state = new Vector<BlockState []>();
+		r_dir = new Vector<SparseMemory>();
 		
 		int i = 0;
 		for (Segment seg : m_seglist) {
-			m_ram.add(new long[(seg.size() + 3) / 4]);
+			m_ram.add(new SparseMemory((seg.size() + 3) / 4));
 			m_nbsets[i] = seg.size() >> (2 + Utile.log2(m_words));
-			r_copies.add(new CopiesList[(int) m_nbsets[i]]);
-			for (int j = 0; j < m_nbsets[i]; j++) {
-				r_copies.get(i)[j] = new CopiesList();
-			}
-			r_state.add(new BlockState[(int) m_nbsets[i]]);
+			r_dir.add(new SparseMemory((int) m_nbsets[i] * m_dir_stride));
 			i++;
 		}
 		
@@ -77,29 +110,52 @@ public class Ram {
 	 */
 	void reset() {
 		for (int seg = 0; seg < m_nbseg; seg++) {
-			for (int i = 0; i < m_nbsets[seg]; i++) {
-				r_copies.get(seg)[i].removeAll();
-				r_state.get(seg)[i] = BlockState.VALID;
-			}
-			for (int i = 0; i < (m_seglist.get(seg).size() + 3) / 4; i++) {
-				m_ram.get(seg)[i] = 0;
-			}
+			r_dir.get(seg).clear(); // all lines VALID with no copy
+			m_ram.get(seg).clear();
 		}
 	}
 	
+	
+	/**
+	 * @param seg Index of the segment containing the address addr
+	 * @param addr
+	 * @return the index of the line containing addr in the segment
+	 */
+	private int lineIndex(int seg, long addr) {
+		return (int) (m_y.get(addr) - m_y.get(m_seglist.get(seg).baseAddress()));
+	}
+	
+	
 	/**
+	 * Reads the list of copies of the line containing the address addr into m_entry
 	 * @param addr
-	 * @return the list of copies of the block containing the address addr
+	 * @return m_entry
 	 */
-	CopiesList copies(long addr) {
-		long set = m_y.get(addr);
-		for (int i = 0; i != m_nbseg; i++) {
-			if (m_seglist.get(i).contains(addr)) {
-				return r_copies.get(i)[(int) (set - m_y.get(m_seglist.get(i).baseAddress()))];
-			}
-		}
-		assert (false);
-		return null;
+	private CopiesList loadEntry(long addr) {
+		int i = m_segtable.find(addr);
+		assert (i != -1);
+		m_entry_dir = r_dir.get(i);
+		m_entry_base = lineIndex(i, addr) * m_dir_stride;
+		m_entry.load(m_entry_dir, m_entry_base);
+		return m_entry;
+	}
+	
+	
+	/**
+	 * Writes back m_entry into the directory entry last loaded
+	 */
+	private void storeEntry() {
+		m_entry.store(m_entry_dir, m_entry_base);
+	}
+	
+	
+	/**
+	 * @param seg Index of the segment containing the address addr
+	 * @param addr
+	 * @return the index of the word containing the state of the line containing the address addr
+	 */
+	private int stateIndex(int seg, long addr) {
+		return lineIndex(seg, addr) * m_dir_stride + m_state_word;
 	}
 	
 
@@ -109,14 +165,16 @@ public class Ram {
 	 */
 	BlockState state(long addr) {
 		long set = m_y.get(addr);
-		System.out.println("   addr : 0x" + Long.toHexString(addr) + " - set = " + set);
-		for (int i = 0; i != m_nbseg; i++) {
-			if (m_seglist.get(i).contains(addr)) {
-				return r_state.get(i)[(int) (set - m_y.get(m_seglist.get(i).baseAddress()))];
-			}
+		if (Trace.on(Level.TRACE, "Ram")) {
+			Trace.log("   addr : 0x" + Long.toHexString(addr) + " - set = " + set);
+		}
+		if (!containsAddr(addr)) {
+			assert (false);
+			return BlockState.INVALID;
 		}
-		assert (false);
-		return BlockState.INVALID;
+		int i = m_segtable.find(addr);
+		long word = r_dir.get(i).get(stateIndex(i, addr));
+		return blockStates[(int) ((word >>> m_state_shift) & stateMask)];
 	}
 	
 	
@@ -126,14 +184,11 @@ public class Ram {
 	 * @param bs
 	 */
 	void setState(long addr, BlockState bs) {
-		long set = m_y.get(addr);
-		for (int i = 0; i != m_nbseg; i++) {
-			if (m_seglist.get(i).contains(addr)) {
-				r_state.get(i)[(int) (set - m_y.get(m_seglist.get(i).baseAddress()))] = bs;
-				return;
-			}
-		}
-		assert (false);
+		int i = m_segtable.find(addr);
+		assert (i != -1);
+		int index = stateIndex(i, addr);
+		long word = r_dir.get(i).get(index);
+		r_dir.get(i).set(index, (word & ~(stateMask << m_state_shift)) | ((long) bs.ordinal() << m_state_shift));
 	}
 	
 
@@ -147,37 +202,35 @@ public class Ram {
 	boolean write(long addr, long wdata, int be) {
 		long mask;
 		long old_val, new_val;
-		for (int i = 0; i != m_nbseg; i++) {
-			if (m_seglist.get(i).contains(addr)) {
-				int index = (int) ((addr - m_seglist.get(i).baseAddress()) / 4);
-				mask = Utile.be2mask(be);
-				old_val = m_ram.get(i)[index];
-				new_val = wdata;
-				m_ram.get(i)[index] = (old_val & ~mask) | (new_val & mask);
-				return true;
-			}
+		int i = m_segtable.find(addr);
+		if (i == -1) {
+			return false;
 		}
-		return false;
+		int index = (int) ((addr - m_seglist.get(i).baseAddress()) / 4);
+		mask = Utile.be2mask(be);
+		old_val = m_ram.get(i).get(index);
+		new_val = wdata;
+		m_ram.get(i).set(index, (old_val & ~mask) | (new_val & mask));
+		return true;
 	}
 	
 
 	/**
 	 * Writes a full line into memory
 	 * @param addr The address of the line to update.
-	 * @param wdata List of values to write containing as many elements as words per line.
+	 * @param wdata Array of values to write containing as many elements as words per line.
 	 * @return true if the ram contains the address and the update is done, false otherwise.
 	 */
-	boolean writeLine(long addr, List<Long> wdata) {
-		for (int i = 0; i != m_nbseg; i++) {
-			if (m_seglist.get(i).contains(addr)) {
-				int index = (int) ((addr - m_seglist.get(i).baseAddress()) / 4);
-				for (int word = 0; word < m_words; word++) {
-					m_ram.get(i)[index + word] = wdata.get(word);
-				}
-				return true;
-			}
+	boolean writeLine(long addr, long [] wdata) {
+		int i = m_segtable.find(addr);
+		if (i == -1) {
+			return false;
+		}
+		int index = (int) ((addr - m_seglist.get(i).baseAddress()) / 4);
+		for (int word = 0; word < m_words; word++) {
+			m_ram.get(i).set(index + word, wdata[word]);
 		}
-		return false;
+		return true;
 	}
 	
 	
@@ -187,7 +240,7 @@ public class Ram {
 	 * @return true if the cache cache_id owns a copy of the line containing the address addr, false otherwise.
 	 */
 	boolean hasCopy(long addr, int cache_id) {
-		return copies(addr).hasCopy(cache_id);
+		return loadEntry(addr).hasCopy(cache_id);
 	}
 	
 
@@ -197,7 +250,7 @@ public class Ram {
 	 * @return true if the line containing the address addr is owned by another cache that the one specified by cache_id.
 	 */
 	boolean hasOtherCopy(long addr, int cache_id) {
-		return copies(addr).hasOtherCopy(cache_id);
+		return loadEntry(addr).hasOtherCopy(cache_id);
 	}
 	
 	/**
@@ -206,7 +259,8 @@ public class Ram {
 	 * @param cache_id
 	 */
 	void addCopy(long addr, int cache_id) {
-		copies(addr).add(cache_id);
+		loadEntry(addr).add(cache_id);
+		storeEntry();
 	}
 	
 	/**
@@ -215,7 +269,8 @@ public class Ram {
 	 * @param cache_id
 	 */
 	void removeCopy(long addr, int cache_id) {
-		copies(addr).remove(cache_id);
+		loadEntry(addr).remove(cache_id);
+		storeEntry();
 	}
 	
 	
@@ -224,7 +279,8 @@ public class Ram {
 	 * @param addr
 	 */
 	void removeAllCopies(long addr) {
-		copies(addr).removeAll();
+		loadEntry(addr).removeAll();
+		storeEntry();
 	}
 	
 
@@ -233,16 +289,34 @@ public class Ram {
 	 * @return The number of copies for the line containing the address addr.
 	 */
 	int nbCopies(long addr) {
-		return copies(addr).nbCopies();
+		return loadEntry(addr).nbCopies();
 	}
 	
 
 	/**
+	 * Copies the list of copies of the line containing the address addr into copies, without allocating.
+	 * When the directory encoding is not exact, copies receives all the caches the entry may designate.
 	 * @param addr
-	 * @return The list of copies (CopiesList object) for the line containing the address addr.
+	 * @param copies The CopiesList object receiving the list of copies, usually obtained with newCopiesList()
 	 */
-	CopiesList getCopies(long addr) {
-		return copies(addr);
+	void getCopies(long addr, CopiesList copies) {
+		CopiesList entry = loadEntry(addr);
+		if (entry.isExact() && copies.getClass() == entry.getClass()) {
+			copies.copy(entry);
+			return;
+		}
+		copies.removeAll();
+		for (int id = entry.getNextOwner(); id != -1; id = entry.nextOwner(id + 1)) {
+			copies.add(id);
+		}
+	}
+	
+	
+	/**
+	 * @return an empty exact list of copies covering the srcids of the directory, suitable for getCopies()
+	 */
+	CopiesList newCopiesList() {
+		return new BitVectorCopiesList(m_entry.getFirstId(), m_entry.getNbIds());
 	}
 	
 
@@ -279,30 +353,25 @@ public class Ram {
 	 * @return true if the ram contains the address addr, false otherwise.
 	 */
 	boolean containsAddr(long addr) {
-		for (int i = 0; i != m_nbseg; i++) {
-			if (m_seglist.get(i).contains(addr)) {
-				return true;
-			}
-		}
-		return false;
+		return m_segtable.find(addr) != -1;
 	}
 	
 	/**
+	 * Copies the words of the line containing the address addr into buf.
 	 * @param addr
-	 * @return A list of values corresponding to the words of the line containing the address addr.
+	 * @param buf Array receiving the values, containing at least as many elements as words per line
+	 * @return buf, or null if the ram does not contain the address addr.
 	 */
-	List<Long> getLine(long addr) {
-		List<Long> res = new ArrayList<Long>();
-		for (int i = 0; i != m_nbseg; i++) {
-			if (m_seglist.get(i).contains(addr)) {
-				int index = (int) ((addr - m_seglist.get(i).baseAddress()) / 4);
-				for (int word = 0; word < m_words; word++) {
-					res.add(m_ram.get(i)[index + word]);
-				}
-				return res;
-			}
+	long [] getLine(long addr, long [] buf) {
+		int i = m_segtable.find(addr);
+		if (i == -1) {
+			return null;
+		}
+		int index = (int) ((addr - m_seglist.get(i).baseAddress()) / 4);
+		for (int word = 0; word < m_words; word++) {
+			buf[word] = m_ram.get(i).get(index + word);
 		}
-		return null;
+		return buf;
 	}
 	
 }
@@ -1,10 +1,5 @@
 package model;
 
-import java.util.ArrayList;
-import java.util.List;
-
-import utils.Utile;
-
 /**
  * Class modeling a request. It contains data and metadata: cycles at the which the request was sent and received
  * @author QLM
@@ -49,15 +44,29 @@ public class Request {
 	// unused if read request
 	// read data if read response
 	// unsused if write response
-	List<Long> r_data;
+	long [] r_data;
 	private int r_be;
 
 	private int r_cycle;
 	private int r_start_cycle;
 	private int r_end_cycle;
+	// maximum delay in the channel, given by the sender; the delay is drawn by the channel
+	private int r_max_delay;
+	// identifier given by the processor to its request, copied in the response; -1 if unused
+	private int r_tag;
+	
+	// cycle at which the request leaves the channel in which it has been pushed, computed by the channel
+	int r_pop_cycle;
 	
 	boolean r_start_cycle_set = false;
 	boolean addedToFinishedReqs = false;
+	
+	// true if the request is kept in a finished requests list, in which case it is never recycled
+	boolean r_retained = false;
+	// true if the request is in the free list of a RequestPool
+	boolean r_free = false;
+	// payload array kept when the request is recycled
+	private long [] m_data_buf;
 
 	public Request() {
 		r_address = 0x0;
@@ -68,42 +77,63 @@ public class Request {
 		r_cycle = 0;
 		r_start_cycle = 0;
 		r_end_cycle = 0;
+		r_max_delay = 0;
+		r_tag = -1;
 		r_data = null;
 	}
 
-	public Request(long address, int srcid, int tgtid, cmd_t cmd, int start_cycle, int max_duration, List<Long> data, int be) {
-		r_address = address;
-		r_srcid = srcid;
-		r_tgtid = tgtid;
-		r_cmd = cmd;
-		r_be = be;
-		r_cycle = start_cycle;
-		this.r_start_cycle = start_cycle;
-		initData(data);
-		
-		r_end_cycle = start_cycle + Utile.randInt(0, max_duration);
+	public Request(long address, int srcid, int tgtid, cmd_t cmd, int start_cycle, int max_duration, long [] data, int be) {
+		init(address, srcid, tgtid, cmd, start_cycle, max_duration, data, be);
 	}
 
 	public Request(long address, int srcid, int tgtid, cmd_t cmd, int start_cycle, int max_duration) {
+		init(address, srcid, tgtid, cmd, start_cycle, max_duration, null, 0xF);
+	}
+
+	/**
+	 * (Re)initializes all the fields of the request, as done by the constructor; used to recycle the request
+	 */
+	void init(long address, int srcid, int tgtid, cmd_t cmd, int start_cycle, int max_duration, long [] data, int be) {
 		r_address = address;
 		r_srcid = srcid;
 		r_tgtid = tgtid;
 		r_cmd = cmd;
-		r_be = 0xF;
+		r_be = be;
 		r_cycle = start_cycle;
 		r_start_cycle = start_cycle;
-		initData(null);
+		initData(data);
+		r_pop_cycle = 0;
+		r_start_cycle_set = false;
+		addedToFinishedReqs = false;
+		r_retained = false;
+		r_free = false;
 
-		r_end_cycle = start_cycle + Utile.randInt(0, max_duration);
+		r_max_delay = max_duration;
+		r_end_cycle = start_cycle;
+		r_tag = -1;
 	}
 
-	private void initData(List<Long> data) {
-		if (data != null) {
-			r_data = new ArrayList<Long>();
+	/**
+	 * Makes the request a copy of req, which can be recycled afterwards
+	 */
+	void copy(Request req) {
+		init(req.r_address, req.r_srcid, req.r_tgtid, req.r_cmd, req.r_start_cycle, req.r_max_delay, req.r_data, req.r_be);
+		r_cycle = req.r_cycle;
+		r_end_cycle = req.r_end_cycle;
+		r_tag = req.r_tag;
+		addedToFinishedReqs = req.addedToFinishedReqs;
+	}
 
-			for (int i = 0; i < data.size(); i++) {
-				r_data.add(data.get(i));
+	/**
+	 * Copies the payload, so that the sender can reuse its buffer; the array of a recycled request is reused if it has the right size
+	 */
+	private void initData(long [] data) {
+		if (data != null) {
+			if (m_data_buf == null || m_data_buf.length != data.length) {
+				m_data_buf = new long[data.length];
 			}
+			System.arraycopy(data, 0, m_data_buf, 0, data.length);
+			r_data = m_data_buf;
 		}
 		else {
 			r_data = null;
@@ -135,21 +165,35 @@ public class Request {
 			return 0;
 		}
 		else {
-			return r_data.size();
+			return r_data.length;
 		}
 	}
 
-	List<Long> getData() {
+	/**
+	 * @return the payload of the request; it must not be modified
+	 */
+	long [] getData() {
 		return r_data;
 	}
 	
+	/**
+	 * @return the tag given by the processor to its request (or to the request answered), -1 if none
+	 */
+	public int getTag() {
+		return r_tag;
+	}
+
+	public void setTag(int tag) {
+		r_tag = tag;
+	}
+
 	public void updateTgtid(int id) {
 		assert(r_tgtid == -1);
 		r_tgtid = id;
 	}
 
-	void simulate1Cycle() {
-		r_cycle++;
+	int getCycle() {
+		return r_cycle;
 	}
 	
 	public int getStartCycle() {
@@ -160,6 +204,18 @@ public class Request {
 		return r_end_cycle;
 	}
 	
+	int getMaxDelay() {
+		return r_max_delay;
+	}
+	
+	/**
+	 * Sets the cycle at which the request reaches the end of the channel, delay cycles after it was sent
+	 * @param delay
+	 */
+	void setDelay(int delay) {
+		r_end_cycle = r_cycle + delay;
+	}
+	
 	public void setStartCycle(int cycle) {
 		// no assert because this function can be called twice
 		if (!r_start_cycle_set) {
@@ -174,10 +230,6 @@ public class Request {
 		addedToFinishedReqs = true;
 	}
 	
-	boolean toPop() {
-		return (r_cycle >= r_end_cycle);
-	}
-
 	public String toString() {
 		String res;
 		res = "--- Request ---\n";
@@ -186,10 +238,10 @@ public class Request {
 		res += "    tgtid: " + r_tgtid + "\n";
 		res += "    cmd: " + r_cmd + "\n";
 		if (r_data != null) {
-			res += "    ndata_words: " + r_data.size() + "\n";
-			res += "    data: [ " + r_data.get(0);
-			for (int i = 1; i < r_data.size(); i++) {
-				res += ", " + r_data.get(i);
+			res += "    ndata_words: " + r_data.length + "\n";
+			res += "    data: [ " + r_data[0];
+			for (int i = 1; i < r_data.length; i++) {
+				res += ", " + r_data[i];
 			}
 			res += " ]\n";
 		}
@@ -207,10 +259,10 @@ public class Request {
 		res += " / tgtid: " + r_tgtid;
 		res += " / " + r_cmd + "\n";
 		if (r_data != null) {
-			res += " / ndata_words: " + r_data.size();
-			res += " / data: [ " + r_data.get(0);
-			for (int i = 1; i < r_data.size(); i++) {
-				res += ", " + r_data.get(i);
+			res += " / ndata_words: " + r_data.length;
+			res += " / data: [ " + r_data[0];
+			for (int i = 1; i < r_data.length; i++) {
+				res += ", " + r_data[i];
 			}
 			res += " ] }";
 		}
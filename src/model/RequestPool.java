@@ -0,0 +1,52 @@
+package model;
+
+import java.util.ArrayDeque;
+
+import model.Request.cmd_t;
+
+/**
+ * Free list of requests owned by a module, so that sending a message does not allocate in steady state.
+ * A module allocates the requests it sends from its pool and releases the requests it receives into
+ * its pool once it has finished using them; since every request is answered by a response, the pools
+ * of the modules remain balanced. A request kept in a finished requests list (for the chronogram) is
+ * never recycled: releasing it has no effect. A pool is only accessed by its module, so that it does
+ * not need to be synchronized with the parallel kernel.
+ */
+class RequestPool {
+
+	private ArrayDeque<Request> m_free = new ArrayDeque<Request>();
+
+	Request alloc(long address, int srcid, int tgtid, cmd_t cmd, int start_cycle, int max_duration, long [] data, int be) {
+		Request req = m_free.pollFirst();
+		if (req == null) {
+			return new Request(address, srcid, tgtid, cmd, start_cycle, max_duration, data, be);
+		}
+		req.init(address, srcid, tgtid, cmd, start_cycle, max_duration, data, be);
+		return req;
+	}
+
+	Request alloc(long address, int srcid, int tgtid, cmd_t cmd, int start_cycle, int max_duration) {
+		return alloc(address, srcid, tgtid, cmd, start_cycle, max_duration, null, 0xF);
+	}
+
+	/**
+	 * Gives back a request which is not referenced anymore by the channels nor by the module
+	 * @param req
+	 */
+	void release(Request req) {
+		if (req.r_retained) {
+			return;
+		}
+		assert (!req.r_free) : "request released twice";
+		req.r_free = true;
+		m_free.addLast(req);
+	}
+
+	/**
+	 * @return the number of requests available for recycling
+	 */
+	int size() {
+		return m_free.size();
+	}
+
+}
@@ -0,0 +1,84 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Immutable address decoder for a list of segments.
+ * The segments are sorted by base address, so that the segment containing an address is found by
+ * a binary search instead of testing all the segments. The segments must not overlap; this is
+ * checked when the table is built.
+ */
+public class SegmentTable {
+
+	private long [] m_bases;
+	private long [] m_ends;
+	/**
+	 * Index of each (sorted) segment in the list given to the constructor
+	 */
+	private int [] m_index;
+
+	/**
+	 * @param seglist the segments to decode
+	 * @throws IllegalArgumentException if two segments overlap
+	 */
+	public SegmentTable(List<Segment> seglist) {
+		List<Integer> order = new ArrayList<Integer>();
+		for (int i = 0; i < seglist.size(); i++) {
+			order.add(i);
+		}
+		final List<Segment> segs = seglist;
+		Collections.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Long.compare(segs.get(a).baseAddress(), segs.get(b).baseAddress());
+			}
+		});
+
+		int n = seglist.size();
+		m_bases = new long[n];
+		m_ends = new long[n];
+		m_index = new int[n];
+		for (int i = 0; i < n; i++) {
+			Segment seg = seglist.get(order.get(i));
+			// Once sorted, a segment overlapping another one overlaps the next one
+			if (i > 0 && seg.isOverlapping(seglist.get(m_index[i - 1]))) {
+				throw new IllegalArgumentException("Overlapping segments: " + seglist.get(m_index[i - 1]) + " and " + seg);
+			}
+			m_bases[i] = seg.baseAddress();
+			m_ends[i] = seg.baseAddress() + seg.size();
+			m_index[i] = order.get(i);
+		}
+	}
+
+
+	/**
+	 * @param addr
+	 * @return the index, in the list given to the constructor, of the segment containing addr; -1 if there is none
+	 */
+	public int find(long addr) {
+		int lo = 0;
+		int hi = m_bases.length - 1;
+		// search for the last segment whose base address is lower or equal to addr
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (m_bases[mid] <= addr) {
+				lo = mid + 1;
+			}
+			else {
+				hi = mid - 1;
+			}
+		}
+		if (hi < 0 || addr >= m_ends[hi]) {
+			return -1;
+		}
+		return m_index[hi];
+	}
+
+
+	public int size() {
+		return m_bases.length;
+	}
+
+}
@@ -0,0 +1,74 @@
+package model;
+
+/**
+ * A zero-initialized array of 64-bit entries, allocated by pages on first write.
+ * Reading an entry of a page never written returns 0 without allocating it, so that large
+ * segments only cost the memory of the pages actually written.
+ */
+public class SparseMemory {
+
+	/**
+	 * log2 of the number of entries per page
+	 */
+	private static final int pageBits = 10;
+	private static final int pageSize = 1 << pageBits;
+	private static final int pageMask = pageSize - 1;
+
+	private int m_size;
+	private long [][] m_pages;
+	private int m_nbpages_allocated;
+
+	/**
+	 * @param size number of entries
+	 */
+	public SparseMemory(int size) {
+		m_size = size;
+		m_pages = new long[(size + pageSize - 1) >>> pageBits][];
+		m_nbpages_allocated = 0;
+	}
+
+	public long get(int index) {
+		assert (index >= 0 && index < m_size);
+		long [] page = m_pages[index >>> pageBits];
+		if (page == null) {
+			return 0;
+		}
+		return page[index & pageMask];
+	}
+
+	public void set(int index, long val) {
+		assert (index >= 0 && index < m_size);
+		long [] page = m_pages[index >>> pageBits];
+		if (page == null) {
+			if (val == 0) {
+				return; // already the value read
+			}
+			page = new long[pageSize];
+			m_pages[index >>> pageBits] = page;
+			m_nbpages_allocated++;
+		}
+		page[index & pageMask] = val;
+	}
+
+	/**
+	 * Sets all the entries to 0 and releases the pages
+	 */
+	public void clear() {
+		for (int i = 0; i < m_pages.length; i++) {
+			m_pages[i] = null;
+		}
+		m_nbpages_allocated = 0;
+	}
+
+	public int size() {
+		return m_size;
+	}
+
+	/**
+	 * @return the number of entries actually allocated
+	 */
+	public long allocatedSize() {
+		return (long) m_nbpages_allocated << pageBits;
+	}
+
+}
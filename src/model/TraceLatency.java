@@ -0,0 +1,75 @@
+package model;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Empirical delay: draws the durations (end cycle - start cycle) of the requests between the L1 caches and the
+ * memory controllers of a trace written by TransactionTraceWriter, with their frequencies in the trace.
+ * The maximum delay given by the sender is ignored.
+ */
+public class TraceLatency extends LatencyModel {
+
+	private final Path m_path;
+	// m_cumul[d] is the number of requests of the trace whose duration is at most d
+	private final long [] m_cumul;
+
+	/**
+	 * @throws IOException if the trace cannot be read or contains no request between caches and memories
+	 */
+	public TraceLatency(Path path) throws IOException {
+		m_path = path;
+		long [] hist = new long[16];
+		int maxDuration = -1;
+		TransactionTraceReader reader = new TransactionTraceReader(path);
+		try {
+			while (reader.next()) {
+				if (reader.getStream() != TransactionTraceWriter.CACHE) {
+					continue;
+				}
+				int d = reader.getEndCycle() - reader.getStartCycle();
+				if (d >= hist.length) {
+					hist = Arrays.copyOf(hist, Math.max(d + 1, hist.length * 2));
+				}
+				hist[d]++;
+				maxDuration = Math.max(maxDuration, d);
+			}
+		}
+		finally {
+			reader.close();
+		}
+		if (maxDuration == -1) {
+			throw new IOException(path + ": no request between caches and memories");
+		}
+		m_cumul = new long[maxDuration + 1];
+		long sum = 0;
+		for (int d = 0; d <= maxDuration; d++) {
+			sum += hist[d];
+			m_cumul[d] = sum;
+		}
+	}
+
+	public int delay(int maxDelay, SplittableRandom rng) {
+		long r = rng.nextLong(m_cumul[m_cumul.length - 1]);
+		// first duration whose cumulated count is greater than r
+		int lo = 0;
+		int hi = m_cumul.length - 1;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (m_cumul[mid] > r) {
+				hi = mid;
+			}
+			else {
+				lo = mid + 1;
+			}
+		}
+		return lo;
+	}
+
+	public String toString() {
+		return "trace:" + m_path;
+	}
+
+}
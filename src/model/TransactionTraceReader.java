@@ -0,0 +1,204 @@
+package model;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import model.Request.cmd_t;
+
+/**
+ * Reads a trace written by TransactionTraceWriter one record at a time, so that traces larger than the heap
+ * can be analyzed: next() decodes the following record, whose fields are then available through the getters,
+ * until the next call. toRequest() builds a finished request from the current record, as found in the finished
+ * requests lists of a topcell, e.g. to display a window of the trace in the chronogram.
+ * @author QLM
+ */
+public class TransactionTraceReader implements Closeable {
+
+	private static final int bufferSize = 1 << 16;
+	private static final cmd_t [] cmds = cmd_t.values();
+
+	private FileChannel m_file;
+	private ByteBuffer m_buf = ByteBuffer.allocateDirect(bufferSize);
+	private boolean m_eof = false;
+
+	private int m_stream;
+	private cmd_t m_cmd;
+	private int m_start_cycle = 0;
+	private int m_end_cycle;
+	private long m_address;
+	private int m_srcid;
+	private int m_tgtid;
+	private int m_be;
+	private long [] m_data;
+
+	/**
+	 * @throws IOException if the file cannot be read or is not a trace
+	 */
+	public TransactionTraceReader(Path path) throws IOException {
+		m_file = FileChannel.open(path, StandardOpenOption.READ);
+		m_buf.flip();
+		if (!fill(5) || m_buf.getInt() != TransactionTraceWriter.magic) {
+			m_file.close();
+			throw new IOException(path + " is not a transaction trace");
+		}
+		int version = m_buf.get();
+		if (version != TransactionTraceWriter.version) {
+			m_file.close();
+			throw new IOException(path + ": unsupported trace version " + version);
+		}
+	}
+
+	/**
+	 * Decodes the next record
+	 * @return false if the end of the trace is reached
+	 * @throws IOException if the file cannot be read or ends within a record
+	 */
+	public boolean next() throws IOException {
+		if (!m_buf.hasRemaining() && !fill(1)) {
+			return false;
+		}
+		int head = m_buf.get() & 0xFF;
+		if ((head >>> 2) >= cmds.length) {
+			throw new IOException("corrupted trace: unknown command " + (head >>> 2));
+		}
+		m_cmd = cmds[head >>> 2];
+		m_stream = head & 1;
+		m_start_cycle += (int) unzigzag(getVarint());
+		m_end_cycle = m_start_cycle + (int) getVarint();
+		m_address = getVarint();
+		m_srcid = (int) getVarint();
+		m_tgtid = (int) unzigzag(getVarint());
+		m_be = (int) getVarint();
+		if ((head & 2) != 0) {
+			int nwords = (int) getVarint();
+			if (m_data == null || m_data.length != nwords) {
+				m_data = new long[nwords];
+			}
+			for (int i = 0; i < nwords; i++) {
+				m_data[i] = unzigzag(getVarint());
+			}
+		}
+		else {
+			m_data = null;
+		}
+		return true;
+	}
+
+	/**
+	 * @return TransactionTraceWriter.CACHE or TransactionTraceWriter.PROC
+	 */
+	public int getStream() {
+		return m_stream;
+	}
+
+	public cmd_t getCmd() {
+		return m_cmd;
+	}
+
+	public int getStartCycle() {
+		return m_start_cycle;
+	}
+
+	public int getEndCycle() {
+		return m_end_cycle;
+	}
+
+	public long getAddress() {
+		return m_address;
+	}
+
+	public int getSrcid() {
+		return m_srcid;
+	}
+
+	public int getTgtid() {
+		return m_tgtid;
+	}
+
+	public int getBe() {
+		return m_be;
+	}
+
+	/**
+	 * @return the data of the current record, null if it has none; the array is reused by next()
+	 */
+	public long [] getData() {
+		return m_data;
+	}
+
+	/**
+	 * @return a new finished request with the fields of the current record
+	 */
+	public Request toRequest() {
+		Request req = new Request(m_address, m_srcid, m_tgtid, m_cmd, m_start_cycle, 0, m_data, m_be);
+		req.addToFinishedReqs(m_end_cycle);
+		return req;
+	}
+
+	/**
+	 * Reads the records ending in the window [firstCycle, lastCycle] into the lists, as finished requests
+	 * @param cacheReqs : list receiving the requests of the CACHE stream
+	 * @param procReqs : list receiving the requests of the PROC stream
+	 */
+	public void readWindow(int firstCycle, int lastCycle, List<Request> cacheReqs, List<Request> procReqs) throws IOException {
+		while (next()) {
+			if (m_end_cycle >= firstCycle && m_end_cycle <= lastCycle) {
+				if (m_stream == TransactionTraceWriter.CACHE) {
+					cacheReqs.add(toRequest());
+				}
+				else {
+					procReqs.add(toRequest());
+				}
+			}
+		}
+	}
+
+	public void close() throws IOException {
+		m_file.close();
+	}
+
+	/**
+	 * Reads the file until at least nbytes are available in the buffer
+	 * @return false if the end of the file is reached before
+	 */
+	private boolean fill(int nbytes) throws IOException {
+		if (m_eof) {
+			return m_buf.remaining() >= nbytes;
+		}
+		m_buf.compact();
+		while (m_buf.position() < nbytes) {
+			if (m_file.read(m_buf) == -1) {
+				m_eof = true;
+				break;
+			}
+		}
+		m_buf.flip();
+		return m_buf.remaining() >= nbytes;
+	}
+
+	private long getVarint() throws IOException {
+		long res = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			if (!m_buf.hasRemaining() && !fill(1)) {
+				throw new EOFException("truncated trace record");
+			}
+			byte b = m_buf.get();
+			res |= (long) (b & 0x7F) << shift;
+			if (b >= 0) {
+				return res;
+			}
+		}
+		throw new IOException("corrupted trace: varint too long");
+	}
+
+	static long unzigzag(long val) {
+		return (val >>> 1) ^ -(val & 1);
+	}
+
+}
@@ -0,0 +1,130 @@
+package model;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes the finished requests of the channels in a compact binary file, read back by TransactionTraceReader.
+ * The file starts with the magic number and the version of the format, followed by one record per request:
+ *  - a byte containing the command (cmd_t ordinal) in bits 7..2, a flag set if the request carries data in bit 1,
+ *    and the stream (CACHE or PROC, i.e. the finished requests list of the topcell) in bit 0
+ *  - the start cycle, as the signed difference with the start cycle of the previous record
+ *  - the number of cycles between the start and the end of the request
+ *  - the address, the srcid, the tgtid (signed) and the byte enable
+ *  - if the request carries data, the number of words followed by the words (signed)
+ * All the integers are varints (7 bits per byte, least significant first); signed ones are zigzag encoded.
+ * Records are written in the order in which the requests finish, the same with the sequential and the parallel kernels.
+ * @author QLM
+ */
+public class TransactionTraceWriter implements Closeable {
+
+	static final int magic = 0x43505452; // "CPTR"
+	static final int version = 1;
+
+	/**
+	 * Stream of the requests between L1 caches and memory controllers
+	 */
+	public static final int CACHE = 0;
+	/**
+	 * Stream of the requests between processors and L1 caches
+	 */
+	public static final int PROC = 1;
+
+	private static final int bufferSize = 1 << 16;
+	// maximum size of a varint encoding a long
+	static final int maxVarintSize = 10;
+
+	private FileChannel m_file;
+	private ByteBuffer m_buf = ByteBuffer.allocateDirect(bufferSize);
+	private int m_last_start = 0;
+	private long m_nb_records = 0;
+
+	public TransactionTraceWriter(Path path) throws IOException {
+		m_file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		m_buf.putInt(magic);
+		m_buf.put((byte) version);
+	}
+
+	/**
+	 * Appends the request, which must be finished, to the trace
+	 * @param req
+	 * @param stream CACHE or PROC
+	 * @throws UncheckedIOException if the file cannot be written, since the channels calling this method cannot handle it
+	 */
+	public synchronized void record(Request req, int stream) {
+		assert (stream == CACHE || stream == PROC);
+		assert (req.getEndCycle() >= req.getStartCycle());
+		long [] data = req.getData();
+		try {
+			ensure(1 + 6 * maxVarintSize);
+			m_buf.put((byte) ((req.getCmd().ordinal() << 2) | (data != null ? 2 : 0) | stream));
+			putVarint(m_buf, zigzag(req.getStartCycle() - m_last_start));
+			putVarint(m_buf, req.getEndCycle() - req.getStartCycle());
+			putVarint(m_buf, req.getAddress());
+			putVarint(m_buf, req.getSrcid());
+			putVarint(m_buf, zigzag(req.getTgtid()));
+			putVarint(m_buf, req.getBe());
+			if (data != null) {
+				putVarint(m_buf, data.length);
+				for (int i = 0; i < data.length; i++) {
+					ensure(maxVarintSize);
+					putVarint(m_buf, zigzag(data[i]));
+				}
+			}
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		m_last_start = req.getStartCycle();
+		m_nb_records++;
+	}
+
+	/**
+	 * @return the number of requests recorded
+	 */
+	public synchronized long getNbRecords() {
+		return m_nb_records;
+	}
+
+	/**
+	 * Writes the buffered records in the file
+	 */
+	public synchronized void flush() throws IOException {
+		m_buf.flip();
+		while (m_buf.hasRemaining()) {
+			m_file.write(m_buf);
+		}
+		m_buf.clear();
+	}
+
+	public synchronized void close() throws IOException {
+		if (m_file.isOpen()) {
+			flush();
+			m_file.close();
+		}
+	}
+
+	private void ensure(int nbytes) throws IOException {
+		if (m_buf.remaining() < nbytes) {
+			flush();
+		}
+	}
+
+	static void putVarint(ByteBuffer buf, long val) {
+		while ((val & ~0x7FL) != 0) {
+			buf.put((byte) ((val & 0x7F) | 0x80));
+			val >>>= 7;
+		}
+		buf.put((byte) val);
+	}
+
+	static long zigzag(long val) {
+		return (val << 1) ^ (val >> 63);
+	}
+
+}
@@ -0,0 +1,18 @@
+package model;
+
+import java.util.SplittableRandom;
+
+/**
+ * Delay drawn uniformly between 0 and the maximum delay given by the sender (the default model).
+ */
+public class UniformLatency extends LatencyModel {
+
+	public int delay(int maxDelay, SplittableRandom rng) {
+		return maxDelay <= 0 ? 0 : rng.nextInt(maxDelay + 1);
+	}
+
+	public String toString() {
+		return "uniform";
+	}
+
+}
@@ -0,0 +1,468 @@
+package simulation;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import model.AccessTraceReader;
+import model.FixedLatency;
+import model.GeometricLatency;
+import model.LatencyModel;
+import model.Processor;
+import model.TraceLatency;
+import model.TransactionTraceWriter;
+import model.UniformLatency;
+import topcells.Top1Proc1Ram;
+import topcells.Top2Procs1Ram;
+import topcells.Top2Procs2Rams;
+import topcells.Topcell;
+import topcells.TopcellBuilder;
+import utils.Trace;
+import utils.Trace.Level;
+
+/**
+ * Headless entry point: runs a topcell without building the view, until all the processors
+ * have received the responses to their requests or the cycle budget is exhausted, then prints a summary.
+ *
+ * Usage: BatchSimul [-t topcell | -f topology_file] [-c max_cycles] [-w workload_file] [-a procid=access_trace]... [-o max_pending] [-i issue_width] [-e seed] [-d latency] [-p threads] [-s] [-n] [-r cycles] [-b trace_file] [-v] [-l [module=]level]...
+ *
+ * The workload file contains one processor request per line ('#' starts a comment):
+ *   procid R address
+ *   procid W address value
+ * Addresses and values can be given in decimal or in hexadecimal (0x prefix).
+ * With -f, the topcell is built by a TopcellBuilder from the given properties file instead of being one of the fixed topcells.
+ * With -a, the processor procid replays the accesses of the given binary trace (written by AccessTraceWriter), read
+ * from the file as the simulation goes, with at most max_pending requests waiting for their response (-o, 1 by default).
+ * With -i, each processor replaying a trace issues up to issue_width requests and receives up to issue_width responses
+ * per cycle (1 by default); the responses can then arrive out of order, and their number is reported.
+ * If no workload nor access trace is given, the example requests of the topcells are loaded.
+ * With -e, the delays of the channels are drawn from generators seeded by the given seed (by default, they are seeded
+ * from the names of the channels): two runs with the same seed, topcell and workload simulate the same cycles.
+ * With -d, the delays between the L1 caches and the memory controllers follow the given model: uniform (default),
+ * fixed:N (N cycles), geometric:M (mean of M cycles) or trace:FILE (durations of the requests of a binary trace).
+ * With -p, the modules of a cycle are simulated in parallel on a fork-join pool of the given size.
+ * With -s, the cycles during which no module nor channel can change state are skipped.
+ * With -n, the finished requests are not retained (there is no chronogram) and the requests are recycled,
+ * so that the simulation runs with almost no allocation; the numbers of messages are then not reported.
+ * With -r, only the finished requests of the last given number of cycles are kept in memory, the older ones being spilled to disk.
+ * With -b, the finished requests are recorded in a binary trace file, which can be read with TransactionTraceReader.
+ * The trace of the model is disabled by default; -v enables all of it, and -l sets the level (OFF, INFO, DEBUG or TRACE)
+ * of all the modules, or of the modules whose name starts with the given prefix (e.g. -l "L1 controller 0=TRACE").
+ */
+public class BatchSimul {
+
+	private static final String defaultTopcell = "Top2Procs1Ram";
+	private static final int defaultMaxCycles = 1000000;
+
+	public static void main(String[] args) {
+		String topName = defaultTopcell;
+		String topologyFile = null;
+		String workload = null;
+		int maxCycles = defaultMaxCycles;
+		int nbThreads = 0;
+		boolean skipIdle = false;
+		boolean retention = true;
+		String traceFile = null;
+		int window = -1;
+		Long seed = null;
+		String latencySpec = null;
+		List<String> accessTraces = new ArrayList<String>();
+		int maxPending = 1;
+		int issueWidth = 1;
+		Trace.setLevel(Level.OFF);
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-t") && i + 1 < args.length) {
+				topName = args[++i];
+			}
+			else if (args[i].equals("-f") && i + 1 < args.length) {
+				topologyFile = args[++i];
+			}
+			else if (args[i].equals("-c") && i + 1 < args.length) {
+				maxCycles = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("-w") && i + 1 < args.length) {
+				workload = args[++i];
+			}
+			else if (args[i].equals("-a") && i + 1 < args.length) {
+				accessTraces.add(args[++i]);
+			}
+			else if (args[i].equals("-o") && i + 1 < args.length) {
+				maxPending = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("-i") && i + 1 < args.length) {
+				issueWidth = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("-e") && i + 1 < args.length) {
+				seed = Long.decode(args[++i]);
+			}
+			else if (args[i].equals("-d") && i + 1 < args.length) {
+				latencySpec = args[++i];
+			}
+			else if (args[i].equals("-p") && i + 1 < args.length) {
+				nbThreads = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("-s")) {
+				skipIdle = true;
+			}
+			else if (args[i].equals("-n")) {
+				retention = false;
+			}
+			else if (args[i].equals("-r") && i + 1 < args.length) {
+				window = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("-b") && i + 1 < args.length) {
+				traceFile = args[++i];
+			}
+			else if (args[i].equals("-v")) {
+				Trace.setLevel(Level.TRACE);
+			}
+			else if (args[i].equals("-l") && i + 1 < args.length) {
+				if (!parseLevel(args[++i])) {
+					usage();
+					return;
+				}
+			}
+			else {
+				usage();
+				return;
+			}
+		}
+
+		Topcell topcell;
+		if (topologyFile != null) {
+			topName = topologyFile;
+			try {
+				topcell = new TopcellBuilder().load(topologyFile).build();
+			}
+			catch (IOException e) {
+				System.err.println("Cannot read topology " + topologyFile + ": " + e.getMessage());
+				return;
+			}
+			catch (IllegalArgumentException e) {
+				System.err.println("Invalid topology " + topologyFile + ": " + e.getMessage());
+				return;
+			}
+		}
+		else {
+			topcell = buildTopcell(topName);
+		}
+		if (topcell == null) {
+			System.err.println("Unknown topcell: " + topName);
+			usage();
+			return;
+		}
+
+		try {
+			if (workload != null) {
+				loadWorkload(topcell, workload);
+			}
+			else if (accessTraces.isEmpty()) {
+				loadDefaultWorkload(topcell);
+			}
+		}
+		catch (IOException e) {
+			System.err.println("Cannot read workload " + workload + ": " + e.getMessage());
+			return;
+		}
+		catch (IllegalArgumentException e) {
+			System.err.println("Invalid workload " + workload + ": " + e.getMessage());
+			return;
+		}
+
+		for (String spec : accessTraces) {
+			try {
+				loadAccessTrace(topcell, spec, maxPending, issueWidth);
+			}
+			catch (IOException e) {
+				System.err.println("Cannot read access trace: " + e.getMessage());
+				return;
+			}
+			catch (IllegalArgumentException e) {
+				System.err.println("Invalid access trace " + spec + ": " + e.getMessage());
+				return;
+			}
+		}
+
+		if (seed != null) {
+			topcell.setSeed(seed);
+		}
+		if (latencySpec != null) {
+			try {
+				topcell.setLatencyModel(parseLatency(latencySpec));
+			}
+			catch (IOException e) {
+				System.err.println("Cannot read latency trace: " + e.getMessage());
+				return;
+			}
+			catch (IllegalArgumentException e) {
+				System.err.println("Invalid latency model " + latencySpec + ": " + e.getMessage());
+				return;
+			}
+		}
+
+		topcell.setRetention(retention);
+		if (window >= 0) {
+			try {
+				topcell.setRetentionWindow(window);
+			}
+			catch (IOException e) {
+				System.err.println("Cannot create the spill files: " + e.getMessage());
+				return;
+			}
+		}
+
+		TransactionTraceWriter trace = null;
+		if (traceFile != null) {
+			try {
+				trace = new TransactionTraceWriter(Paths.get(traceFile));
+			}
+			catch (IOException e) {
+				System.err.println("Cannot create trace " + traceFile + ": " + e.getMessage());
+				return;
+			}
+			topcell.setTraceWriter(trace);
+		}
+
+		ForkJoinPool pool = null;
+		if (nbThreads > 0) {
+			pool = new ForkJoinPool(nbThreads);
+			topcell.setParallelPool(pool);
+		}
+
+		long startTime = System.nanoTime();
+		boolean finished;
+		try {
+			finished = run(topcell, maxCycles, skipIdle);
+		}
+		finally {
+			Trace.flush();
+			if (pool != null) {
+				pool.shutdown();
+			}
+			if (trace != null) {
+				try {
+					trace.close();
+				}
+				catch (IOException e) {
+					System.err.println("Cannot write trace " + traceFile + ": " + e.getMessage());
+				}
+			}
+		}
+		long elapsed = System.nanoTime() - startTime;
+
+		printSummary(System.out, topName, topcell, finished, retention, trace, !accessTraces.isEmpty() && issueWidth > 1, elapsed);
+	}
+
+
+	/**
+	 * Simulates the topcell until all the processors can stop or until the topcell reaches the cycle maxCycles.
+	 * @param skipIdle : if true, the idle cycles are skipped instead of being simulated
+	 * @return true if all the processors have finished, false if the cycle budget was exhausted
+	 */
+	public static boolean run(Topcell topcell, int maxCycles, boolean skipIdle) {
+		while (topcell.getNbCycles() < maxCycles) {
+			if (allProcsStopOk(topcell)) {
+				return true;
+			}
+			if (skipIdle) {
+				topcell.skipIdleCycles(maxCycles - topcell.getNbCycles());
+				if (topcell.getNbCycles() == maxCycles) {
+					break;
+				}
+			}
+			topcell.simulate1Cycle();
+		}
+		return allProcsStopOk(topcell);
+	}
+
+
+	public static boolean allProcsStopOk(Topcell topcell) {
+		for (int i = 0; i < topcell.getNbProcs(); i++) {
+			if (!topcell.getProcessor(i).stopOk()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	public static Topcell buildTopcell(String name) {
+		if (name.equals("Top1Proc1Ram")) {
+			return new Top1Proc1Ram();
+		}
+		else if (name.equals("Top2Procs1Ram")) {
+			return new Top2Procs1Ram();
+		}
+		else if (name.equals("Top2Procs2Rams")) {
+			return new Top2Procs2Rams();
+		}
+		return null;
+	}
+
+
+	/**
+	 * Reads a workload file and queues its requests on the processors of the topcell
+	 */
+	public static void loadWorkload(Topcell topcell, String filename) throws IOException {
+		BufferedReader reader = new BufferedReader(new FileReader(filename));
+		try {
+			String line;
+			int lineNum = 0;
+			while ((line = reader.readLine()) != null) {
+				lineNum++;
+				int comment = line.indexOf('#');
+				if (comment != -1) {
+					line = line.substring(0, comment);
+				}
+				line = line.trim();
+				if (line.isEmpty()) {
+					continue;
+				}
+				String [] fields = line.split("\\s+");
+				if (fields.length < 3) {
+					throw new IllegalArgumentException("line " + lineNum + ": expected 'procid R|W address [value]'");
+				}
+				int procid = Integer.parseInt(fields[0]);
+				Processor proc = topcell.getProcessor(procid);
+				if (proc == null) {
+					throw new IllegalArgumentException("line " + lineNum + ": no processor " + procid);
+				}
+				long addr = Long.decode(fields[2]);
+				if (fields[1].equalsIgnoreCase("R")) {
+					proc.addRead(addr);
+				}
+				else if (fields[1].equalsIgnoreCase("W") && fields.length == 4) {
+					proc.addWrite(addr, Long.decode(fields[3]));
+				}
+				else {
+					throw new IllegalArgumentException("line " + lineNum + ": unknown request '" + line + "'");
+				}
+			}
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+
+	/**
+	 * Makes a processor of the topcell replay an access trace
+	 * @param spec : procid=file
+	 * @throws IllegalArgumentException if the spec is invalid or the processor does not exist
+	 */
+	public static void loadAccessTrace(Topcell topcell, String spec, int maxPending, int issueWidth) throws IOException {
+		int eq = spec.indexOf('=');
+		if (eq == -1 || maxPending < 1 || issueWidth < 1) {
+			throw new IllegalArgumentException("expected procid=file, a positive maximum number of pending requests and a positive issue width");
+		}
+		int procid = Integer.parseInt(spec.substring(0, eq));
+		Processor proc = topcell.getProcessor(procid);
+		if (proc == null) {
+			throw new IllegalArgumentException("no processor " + procid);
+		}
+		proc.setTrace(new AccessTraceReader(Paths.get(spec.substring(eq + 1))), maxPending, issueWidth);
+	}
+
+
+	/**
+	 * Loads the example requests found in the topcells: each processor writes then reads back interleaved words of the same lines
+	 */
+	public static void loadDefaultWorkload(Topcell topcell) {
+		for (int i = 0; i < topcell.getNbProcs(); i++) {
+			Processor proc = topcell.getProcessor(i);
+			for (int j = 0; j < 4; j++) {
+				long addr = 0x00400000 + 4 * i + 8 * j;
+				proc.addWrite(addr, 10 * (i + 1) + j);
+				proc.addRead(addr);
+			}
+		}
+	}
+
+
+	/**
+	 * @param spec : uniform, fixed:N, geometric:M or trace:FILE
+	 * @throws IllegalArgumentException if the model is unknown
+	 */
+	public static LatencyModel parseLatency(String spec) throws IOException {
+		int colon = spec.indexOf(':');
+		String name = colon == -1 ? spec : spec.substring(0, colon);
+		String param = colon == -1 ? null : spec.substring(colon + 1);
+		if (name.equals("uniform") && param == null) {
+			return new UniformLatency();
+		}
+		else if (name.equals("fixed") && param != null) {
+			return new FixedLatency(Integer.parseInt(param));
+		}
+		else if (name.equals("geometric") && param != null) {
+			return new GeometricLatency(Double.parseDouble(param));
+		}
+		else if (name.equals("trace") && param != null) {
+			return new TraceLatency(Paths.get(param));
+		}
+		throw new IllegalArgumentException("expected uniform, fixed:N, geometric:M or trace:FILE");
+	}
+
+
+	/**
+	 * Sets a trace level given as 'level' or 'module=level'
+	 * @return false if the level is unknown
+	 */
+	private static boolean parseLevel(String spec) {
+		int eq = spec.lastIndexOf('=');
+		Level level;
+		try {
+			level = Level.valueOf(spec.substring(eq + 1).toUpperCase());
+		}
+		catch (IllegalArgumentException e) {
+			System.err.println("Unknown trace level: " + spec.substring(eq + 1));
+			return false;
+		}
+		if (eq == -1) {
+			Trace.setLevel(level);
+		}
+		else {
+			Trace.setLevel(spec.substring(0, eq), level);
+		}
+		return true;
+	}
+
+
+	private static void usage() {
+		System.err.println("Usage: BatchSimul [-t Top1Proc1Ram|Top2Procs1Ram|Top2Procs2Rams | -f topology_file] [-c max_cycles] [-w workload_file] [-a procid=access_trace]... [-o max_pending] [-i issue_width] [-e seed] [-d latency] [-p threads] [-s] [-n] [-r cycles] [-b trace_file] [-v] [-l [module=]level]...");
+	}
+
+
+	private static void printSummary(PrintStream out, String topName, Topcell topcell, boolean finished, boolean retention,
+			TransactionTraceWriter trace, boolean outOfOrder, long elapsed) {
+		int nbCycles = topcell.getNbCycles();
+		double seconds = elapsed / 1e9;
+		out.println("Topcell:              " + topName);
+		out.println("Status:               " + (finished ? "all processors finished" : "cycle budget exhausted"));
+		out.println("Simulated cycles:     " + nbCycles);
+		if (retention) {
+			out.println("Processor messages:   " + topcell.getFinishedProcsRequests().size());
+			out.println("Coherence messages:   " + topcell.getFinishedCacheRequests().size());
+		}
+		if (trace != null) {
+			out.println("Traced messages:      " + trace.getNbRecords());
+		}
+		if (outOfOrder) {
+			long nbOutOfOrder = 0;
+			for (int i = 0; i < topcell.getNbProcs(); i++) {
+				nbOutOfOrder += topcell.getProcessor(i).getNbOutOfOrder();
+			}
+			out.println("Out-of-order rsps:    " + nbOutOfOrder);
+		}
+		out.printf("Wall-clock time:      %.3f s%n", seconds);
+		if (seconds > 0) {
+			out.printf("Simulation speed:     %.0f cycles/s%n", nbCycles / seconds);
+		}
+	}
+
+}
@@ -1,22 +1,33 @@
 package topcells;
 
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.SplittableRandom;
 import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
 
 import model.Channel;
+import model.EventScheduler;
+import model.FinishedRequestList;
 import model.L1Controller;
 import model.L1MesiController;
 import model.L1WtiController;
+import model.LatencyModel;
 import model.MemController;
 import model.MemMesiController;
 import model.MemWtiController;
 import model.Module;
+import model.ParallelKernel;
 import model.Processor;
 import model.Request;
 import model.Segment;
+import model.TransactionTraceWriter;
+import utils.Trace;
+import utils.Trace.Level;
 
 /**
  * Topcell containing two processors and one memory bank.
@@ -54,13 +65,18 @@ public class Top2Procs2Rams implements Topcell {
 	private Channel mem_l1_req;
 	private Channel l1_mem_rsp;
 	
-	private List<Request> finishedCacheRequests = new ArrayList<Request>();
-	private List<Request> finishedProcRequests = new ArrayList<Request>();
+	private FinishedRequestList finishedCacheRequests = new FinishedRequestList();
+	private FinishedRequestList finishedProcRequests = new FinishedRequestList();
 
 	private List<Module> moduleList = new ArrayList<Module>();
 	
 	private Map<Integer, Processor> processorPerSrcid = new HashMap<Integer, Processor>();
 	
+	private List<Module> simModules = new ArrayList<Module>();
+	private List<Channel> simChannels = new ArrayList<Channel>();
+	
+	private ParallelKernel kernel = null;
+	
 	public Top2Procs2Rams() {
 
 		mem_seg0 = new Segment("mem_seg0", 0x0, 0x1000000, true);
@@ -134,34 +150,54 @@ public class Top2Procs2Rams implements Topcell {
 //		processors.get(1).addWrite(0x0040001C, 4);
 //		processors.get(1).addRead (0x0040001C);
 		
+		// Modules and channels in the order of the sequential simulation, used by the kernels
+		simModules.addAll(processors);
+		simModules.addAll(l1_caches);
+		simModules.add(mem0);
+		simModules.add(mem1);
+		for (int i = 0; i < nb_procs; i++) {
+			simChannels.add(iss_l1_req.get(i));
+			simChannels.add(l1_iss_rsp.get(i));
+		}
+		simChannels.add(l1_mem_req);
+		simChannels.add(mem_l1_rsp);
+		simChannels.add(mem_l1_req);
+		simChannels.add(l1_mem_rsp);
 	}
 
 	public void simulate1Cycle() {
 		// Simulate
-		System.out.println("*** cycle " + cycle + " ***");
-
-		for (int i = 0; i < nb_procs; i++) {
-			processors.get(i).simulate1Cycle();
-			
+		if (Trace.on(Level.DEBUG, "Topcell")) {
+			Trace.log("*** cycle " + cycle + " ***");
 		}
-		for (int i = 0; i < nb_procs; i++) {
-			l1_caches.get(i).simulate1Cycle();
+
+		if (kernel != null) {
+			kernel.simulate1Cycle();
 		}
+		else {
+			for (int i = 0; i < nb_procs; i++) {
+				processors.get(i).simulate1Cycle();
+			
+			}
+			for (int i = 0; i < nb_procs; i++) {
+				l1_caches.get(i).simulate1Cycle();
+			}
 		
-		mem0.simulate1Cycle();
-		mem1.simulate1Cycle();
+			mem0.simulate1Cycle();
+			mem1.simulate1Cycle();
 		
-		// Simulate Channels last
-		for (int i = 0; i < nb_procs; i++) {
-			iss_l1_req.get(i).simulate1Cycle();
-			l1_iss_rsp.get(i).simulate1Cycle();
-		}
+			// Simulate Channels last
+			for (int i = 0; i < nb_procs; i++) {
+				iss_l1_req.get(i).simulate1Cycle();
+				l1_iss_rsp.get(i).simulate1Cycle();
+			}
 		
-		l1_mem_req.simulate1Cycle();
-		mem_l1_rsp.simulate1Cycle();
+			l1_mem_req.simulate1Cycle();
+			mem_l1_rsp.simulate1Cycle();
 
-		mem_l1_req.simulate1Cycle();
-		l1_mem_rsp.simulate1Cycle();
+			mem_l1_req.simulate1Cycle();
+			l1_mem_rsp.simulate1Cycle();
+		}
 		
 		cycle++;
 	}
@@ -193,4 +229,54 @@ public class Top2Procs2Rams implements Topcell {
 	public Processor getProcessor(int srcid) {
 		return processorPerSrcid.get(srcid);
 	}
+	
+	public int skipIdleCycles(int maxCycles) {
+		int skipped = EventScheduler.skipIdleCycles(simModules, simChannels, cycle, maxCycles);
+		cycle += skipped;
+		return skipped;
+	}
+	
+	public void setParallelPool(ForkJoinPool pool) {
+		if (pool == null) {
+			kernel = null;
+			return;
+		}
+		kernel = new ParallelKernel(simModules, simChannels, pool);
+	}
+	
+	public void setRetention(boolean retention) {
+		for (Channel c : simChannels) {
+			c.setRetention(retention);
+		}
+	}
+	
+	public void setRetentionWindow(int nbCycles) throws IOException {
+		finishedCacheRequests.setWindow(nbCycles, Files.createTempFile("finishedCacheRequests", ".spill"));
+		finishedProcRequests.setWindow(nbCycles, Files.createTempFile("finishedProcRequests", ".spill"));
+	}
+	
+	public void setTraceWriter(TransactionTraceWriter trace) {
+		for (int i = 0; i < nb_procs; i++) {
+			iss_l1_req.get(i).setTraceWriter(trace, TransactionTraceWriter.PROC);
+			l1_iss_rsp.get(i).setTraceWriter(trace, TransactionTraceWriter.PROC);
+		}
+		l1_mem_req.setTraceWriter(trace, TransactionTraceWriter.CACHE);
+		mem_l1_rsp.setTraceWriter(trace, TransactionTraceWriter.CACHE);
+		mem_l1_req.setTraceWriter(trace, TransactionTraceWriter.CACHE);
+		l1_mem_rsp.setTraceWriter(trace, TransactionTraceWriter.CACHE);
+	}
+	
+	public void setSeed(long seed) {
+		SplittableRandom rng = new SplittableRandom(seed);
+		for (Channel c : simChannels) {
+			c.setRandom(rng.split());
+		}
+	}
+	
+	public void setLatencyModel(LatencyModel latency) {
+		l1_mem_req.setLatencyModel(latency);
+		mem_l1_rsp.setLatencyModel(latency);
+		mem_l1_req.setLatencyModel(latency);
+		l1_mem_rsp.setLatencyModel(latency);
+	}
 }
@@ -0,0 +1,270 @@
+package topcells;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+
+import model.Channel;
+import model.CopiesList;
+import model.EventScheduler;
+import model.FinishedRequestList;
+import model.L1Controller;
+import model.L1MesiController;
+import model.L1MesiControllerRestart;
+import model.L1WtiController;
+import model.LatencyModel;
+import model.MemController;
+import model.MemMesiController;
+import model.MemWtiController;
+import model.Module;
+import model.ParallelKernel;
+import model.Processor;
+import model.Request;
+import model.Segment;
+import model.TransactionTraceWriter;
+import utils.Trace;
+import utils.Trace.Level;
+
+/**
+ * Topcell containing any number of processors and of memory controllers, described by a TopcellBuilder.
+ * Beyond 10 processors, the srcids of the processors overlap those of the L1 caches, and beyond 90 the srcids of
+ * the L1 caches overlap those of the memory controllers: this does not matter to the simulation, since each channel
+ * only routes towards one kind of module, but such topcells cannot be displayed in the chronogram.
+ * @author QLM
+ *
+ */
+public class TopNProcsMRams implements Topcell {
+
+	private int nb_procs;
+	private int nb_rams;
+	private int cycle = 0;
+
+	private Vector<L1Controller> l1_caches;
+	private Vector<Processor> processors;
+	private Vector<MemController> mem;
+
+	private Vector<Channel> iss_l1_req;
+	private Vector<Channel> l1_iss_rsp;
+
+	private Channel l1_mem_req;
+	private Channel mem_l1_rsp;
+
+	private Channel mem_l1_req;
+	private Channel l1_mem_rsp;
+
+	private FinishedRequestList finishedCacheRequests = new FinishedRequestList();
+	private FinishedRequestList finishedProcRequests = new FinishedRequestList();
+
+	private List<Module> moduleList = new ArrayList<Module>();
+
+	private Map<Integer, Processor> processorPerSrcid = new HashMap<Integer, Processor>();
+
+	private List<Module> simModules = new ArrayList<Module>();
+	private List<Channel> simChannels = new ArrayList<Channel>();
+
+	private ParallelKernel kernel = null;
+
+	TopNProcsMRams(TopcellBuilder b) {
+		nb_procs = b.nb_procs;
+		nb_rams = b.nb_rams;
+
+		// The blocks of memory are distributed in turn among the memory controllers
+		long block = b.blockSize();
+		Vector<Vector<Segment>> seg_lists = new Vector<Vector<Segment>>();
+		for (int i = 0; i < nb_rams; i++) {
+			seg_lists.add(new Vector<Segment>());
+		}
+		for (long k = 0; k < b.mem_size / block; k++) {
+			int i = (int) (k % nb_rams);
+			seg_lists.get(i).add(new Segment("mem_seg" + i + "_" + k / nb_rams, b.mem_base + k * block, (int) block, true));
+		}
+
+		iss_l1_req = new Vector<Channel>();
+		l1_iss_rsp = new Vector<Channel>();
+
+		l1_mem_req = new Channel("l1_mem_req", nb_rams, true, finishedCacheRequests);
+		mem_l1_rsp = new Channel("mem_l1_rsp", nb_procs, false, finishedCacheRequests);
+
+		mem_l1_req = new Channel("mem_l1_req", nb_procs, false, finishedCacheRequests);
+		l1_mem_rsp = new Channel("l1_mem_rsp", nb_rams, false, finishedCacheRequests);
+
+		l1_caches = new Vector<L1Controller>(nb_procs);
+		processors = new Vector<Processor>(nb_procs);
+		for (int i = 0; i < nb_procs; i++) {
+			Channel iss_l1 = new Channel("iss_l1_req_" + i, 1, false, finishedProcRequests);
+			Channel l1_iss = new Channel("l1_iss_rsp_" + i, 1, false, finishedProcRequests);
+			iss_l1_req.add(iss_l1);
+			l1_iss_rsp.add(l1_iss);
+
+			L1Controller l1Ctrl;
+			switch (b.protocol) {
+			case MESI:
+				l1Ctrl = new L1MesiController("L1 controller " + i, i, b.nways, b.nsets, b.nwords,
+						l1_mem_req, mem_l1_rsp, mem_l1_req, l1_mem_rsp, iss_l1, l1_iss);
+				break;
+			case MESI_RESTART:
+				l1Ctrl = new L1MesiControllerRestart("L1 controller " + i, i, b.nways, b.nsets, b.nwords,
+						l1_mem_req, mem_l1_rsp, mem_l1_req, l1_mem_rsp, iss_l1, l1_iss);
+				break;
+			default:
+				l1Ctrl = new L1WtiController("L1 controller " + i, i, b.nways, b.nsets, b.nwords,
+						l1_mem_req, mem_l1_rsp, mem_l1_req, l1_mem_rsp, iss_l1, l1_iss, b.nb_mshrs);
+				break;
+			}
+			l1_caches.add(l1Ctrl);
+
+			Processor proc = new Processor("Processor " + i, i, iss_l1, l1_iss);
+			processors.add(proc);
+			processorPerSrcid.put(i, proc); // i = srcid
+		}
+
+		mem = new Vector<MemController>();
+		for (int i = 0; i < nb_rams; i++) {
+			CopiesList dirFormat = b.newDirFormat();
+			MemController memCtrl;
+			if (b.protocol == TopcellBuilder.Protocol.WTI) {
+				MemWtiController wtiCtrl = new MemWtiController("Mem controller " + i, i, // ram_id
+						b.nwords, seg_lists.get(i), l1_mem_req, mem_l1_rsp, mem_l1_req, l1_mem_rsp, dirFormat, b.nb_transactions);
+				wtiCtrl.setMulticast(b.multicast);
+				wtiCtrl.setDram(b.newDram());
+				memCtrl = wtiCtrl;
+			}
+			else {
+				memCtrl = new MemMesiController("Mem controller " + i, i, // ram_id
+						b.nwords, seg_lists.get(i), l1_mem_req, mem_l1_rsp, mem_l1_req, l1_mem_rsp, dirFormat);
+			}
+			mem.add(memCtrl);
+		}
+
+		// Creating moduleList with the memories in the middle
+		int half = (nb_procs + 1) / 2;
+		for (int i = 0; i < half; i++) {
+			moduleList.add(processors.get(i));
+			moduleList.add(l1_caches.get(i));
+		}
+		moduleList.addAll(mem);
+		for (int i = half; i < nb_procs; i++) {
+			moduleList.add(l1_caches.get(i));
+			moduleList.add(processors.get(i));
+		}
+
+		// Modules and channels in the order of the sequential simulation, used by the kernels
+		simModules.addAll(processors);
+		simModules.addAll(l1_caches);
+		simModules.addAll(mem);
+		for (int i = 0; i < nb_procs; i++) {
+			simChannels.add(iss_l1_req.get(i));
+			simChannels.add(l1_iss_rsp.get(i));
+		}
+		simChannels.add(l1_mem_req);
+		simChannels.add(mem_l1_rsp);
+		simChannels.add(mem_l1_req);
+		simChannels.add(l1_mem_rsp);
+	}
+
+	public void simulate1Cycle() {
+		// Simulate
+		if (Trace.on(Level.DEBUG, "Topcell")) {
+			Trace.log("*** cycle " + cycle + " ***");
+		}
+
+		if (kernel != null) {
+			kernel.simulate1Cycle();
+		}
+		else {
+			for (Module m : simModules) {
+				m.simulate1Cycle();
+			}
+			// Simulate Channels last
+			for (Channel c : simChannels) {
+				c.simulate1Cycle();
+			}
+		}
+
+		cycle++;
+	}
+
+	public int getNbProcs() {
+		return nb_procs;
+	}
+
+	public int getNbMem() {
+		return nb_rams;
+	}
+
+	public int getNbCycles() {
+		return cycle;
+	}
+
+	public List<Request> getFinishedCacheRequests() {
+		return finishedCacheRequests;
+	}
+
+	public List<Request> getFinishedProcsRequests() {
+		return finishedProcRequests;
+	}
+
+	public List<Module> getAllModules() {
+		return moduleList;
+	}
+
+	public Processor getProcessor(int srcid) {
+		return processorPerSrcid.get(srcid);
+	}
+
+	public int skipIdleCycles(int maxCycles) {
+		int skipped = EventScheduler.skipIdleCycles(simModules, simChannels, cycle, maxCycles);
+		cycle += skipped;
+		return skipped;
+	}
+
+	public void setParallelPool(ForkJoinPool pool) {
+		if (pool == null) {
+			kernel = null;
+			return;
+		}
+		kernel = new ParallelKernel(simModules, simChannels, pool);
+	}
+
+	public void setRetention(boolean retention) {
+		for (Channel c : simChannels) {
+			c.setRetention(retention);
+		}
+	}
+
+	public void setRetentionWindow(int nbCycles) throws IOException {
+		finishedCacheRequests.setWindow(nbCycles, Files.createTempFile("finishedCacheRequests", ".spill"));
+		finishedProcRequests.setWindow(nbCycles, Files.createTempFile("finishedProcRequests", ".spill"));
+	}
+
+	public void setTraceWriter(TransactionTraceWriter trace) {
+		for (int i = 0; i < nb_procs; i++) {
+			iss_l1_req.get(i).setTraceWriter(trace, TransactionTraceWriter.PROC);
+			l1_iss_rsp.get(i).setTraceWriter(trace, TransactionTraceWriter.PROC);
+		}
+		l1_mem_req.setTraceWriter(trace, TransactionTraceWriter.CACHE);
+		mem_l1_rsp.setTraceWriter(trace, TransactionTraceWriter.CACHE);
+		mem_l1_req.setTraceWriter(trace, TransactionTraceWriter.CACHE);
+		l1_mem_rsp.setTraceWriter(trace, TransactionTraceWriter.CACHE);
+	}
+	
+	public void setSeed(long seed) {
+		SplittableRandom rng = new SplittableRandom(seed);
+		for (Channel c : simChannels) {
+			c.setRandom(rng.split());
+		}
+	}
+	
+	public void setLatencyModel(LatencyModel latency) {
+		l1_mem_req.setLatencyModel(latency);
+		mem_l1_rsp.setLatencyModel(latency);
+		mem_l1_req.setLatencyModel(latency);
+		l1_mem_rsp.setLatencyModel(latency);
+	}
+}
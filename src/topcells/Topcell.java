@@ -1,10 +1,14 @@
 package topcells;
 
+import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
+import model.LatencyModel;
 import model.Module;
 import model.Processor;
 import model.Request;
+import model.TransactionTraceWriter;
 
 /**
  * Simple interface to be able to manage different topcells in the controller
@@ -27,4 +31,51 @@ public interface Topcell {
 	public List<Module> getAllModules();
 	public Processor getProcessor(int srcid);
 	
+	/**
+	 * Skips the cycles before the next one at which a module or a channel can change state
+	 * @param maxCycles : maximum number of cycles to skip
+	 * @return the number of cycles skipped
+	 */
+	public int skipIdleCycles(int maxCycles);
+	
+	/**
+	 * Simulates the next cycles with a ParallelKernel running on the given pool
+	 * @param pool : the fork-join pool, or null to go back to the sequential simulation
+	 */
+	public void setParallelPool(ForkJoinPool pool);
+	
+	/**
+	 * Keeps the requests in the finished requests lists, as needed by the chronogram (default), or not,
+	 * in which case the modules recycle them and the simulation runs with almost no allocation
+	 * @param retention
+	 */
+	public void setRetention(boolean retention);
+	
+	/**
+	 * Keeps in memory only the finished requests of the last nbCycles cycles, the older ones being spilled
+	 * to temporary files and read back on demand through the finished requests lists; must be called before the simulation
+	 * @param nbCycles
+	 * @throws IOException if the temporary files cannot be created
+	 */
+	public void setRetentionWindow(int nbCycles) throws IOException;
+	
+	/**
+	 * Records the finished requests in a binary trace, in addition to the finished requests lists if they are retained
+	 * @param trace : the trace, or null to stop recording
+	 */
+	public void setTraceWriter(TransactionTraceWriter trace);
+	
+	/**
+	 * Seeds the random generators of all the channels from seed, so that two simulations with the same seed,
+	 * topcell and requests have the same delays, sequential or parallel, with or without skipping idle cycles
+	 * @param seed
+	 */
+	public void setSeed(long seed);
+	
+	/**
+	 * Sets the delay model of the channels between the L1 caches and the memory controllers
+	 * @param latency
+	 */
+	public void setLatencyModel(LatencyModel latency);
+	
 }
@@ -0,0 +1,368 @@
+package topcells;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Properties;
+
+import model.BitVectorCopiesList;
+import model.CoarseVectorCopiesList;
+import model.CopiesList;
+import model.Dram;
+import model.L1Controller;
+import model.LimitedPointerCopiesList;
+
+/**
+ * Describes a topcell with any number of processors (each with its L1 cache) and of memory controllers, and builds it.
+ * The parameters are set with the setters, or read from a properties file, e.g.:
+ *   procs = 16
+ *   mems = 4
+ *   protocol = wti          (wti; mesi and mesi_restart are rejected until their L1 controllers complete the writes)
+ *   nways = 1
+ *   nsets = 16
+ *   nwords = 8
+ *   mshrs = 0               (number of MSHRs of the WTI L1 caches, 0 for blocking caches)
+ *   transactions = 0        (size of the transaction tables of the memory controllers, 0 for one transaction at a time)
+ *   multicast = false       (true: the memory controllers multicast their invalidations and aggregate the responses)
+ *   dram = false            (true: the accesses of the memory controllers are timed by a banked DRAM model, see Dram)
+ *   dram.banks = 8
+ *   dram.row = 0x800        (size of a row in bytes)
+ *   dram.trcd = 14
+ *   dram.tcas = 14
+ *   dram.trp = 14
+ *   dram.tburst = 4         (cycles to transfer a line)
+ *   dram.page = open        (open or closed)
+ *   dram.queue = 16         (size of the queue of the FR-FCFS scheduler)
+ *   memory.base = 0x0
+ *   memory.size = 0x1000000
+ *   interleave = 0x1000     (0: each memory controller owns a contiguous part of the memory)
+ *   directory = bitvector   (bitvector, pointers:K or coarse:K)
+ * The memory is divided in blocks of interleave bytes, owned by the memory controllers in turn; each block is a segment,
+ * so that a small interleave on a large memory makes many segments.
+ * Missing parameters keep their default values: two processors and two memory controllers sharing 16 MiB at address 0,
+ * with the caches and protocol of Top2Procs2Rams.
+ * @author QLM
+ */
+public class TopcellBuilder {
+
+	public enum Protocol {
+		WTI,
+		MESI,
+		MESI_RESTART,
+	}
+
+	public enum DirectoryFormat {
+		BIT_VECTOR,
+		LIMITED_POINTER,
+		COARSE_VECTOR,
+	}
+
+	int nb_procs = 2;
+	int nb_rams = 2;
+	int nways = 1;
+	int nsets = 16;
+	int nwords = 8;
+	int nb_mshrs = 0;
+	int nb_transactions = 0;
+	boolean multicast = false;
+	boolean dram = false;
+	int dram_banks = 8;
+	int dram_row = 0x800;
+	int dram_trcd = 14;
+	int dram_tcas = 14;
+	int dram_trp = 14;
+	int dram_tburst = 4;
+	Dram.PagePolicy dram_page = Dram.PagePolicy.OPEN;
+	int dram_queue = 16;
+	Protocol protocol = Protocol.WTI;
+	long mem_base = 0x0;
+	long mem_size = 0x1000000;
+	int interleave = 0;
+	DirectoryFormat dir_format = DirectoryFormat.BIT_VECTOR;
+	int dir_param = 0;
+
+	public TopcellBuilder setNbProcs(int nbProcs) {
+		nb_procs = nbProcs;
+		return this;
+	}
+
+	public TopcellBuilder setNbMems(int nbMems) {
+		nb_rams = nbMems;
+		return this;
+	}
+
+	public TopcellBuilder setCacheGeometry(int nways, int nsets, int nwords) {
+		this.nways = nways;
+		this.nsets = nsets;
+		this.nwords = nwords;
+		return this;
+	}
+
+	/**
+	 * @param nbMshrs : number of misses each L1 cache can have in progress; 0 for blocking caches
+	 */
+	public TopcellBuilder setMshrs(int nbMshrs) {
+		nb_mshrs = nbMshrs;
+		return this;
+	}
+
+	/**
+	 * @param nbTransactions : number of transactions each memory controller can have waiting for invalidation responses;
+	 *        0 for controllers serving one transaction at a time
+	 */
+	public TopcellBuilder setTransactions(int nbTransactions) {
+		nb_transactions = nbTransactions;
+		return this;
+	}
+
+	/**
+	 * @param multicast : if true, the memory controllers send the invalidations of a line in a single cycle,
+	 *        and process in a single cycle all the invalidation responses received
+	 */
+	public TopcellBuilder setMulticast(boolean multicast) {
+		this.multicast = multicast;
+		return this;
+	}
+
+	/**
+	 * Times the accesses of the memory controllers with a DRAM model (see Dram)
+	 * @param rowSize : size of a row in bytes
+	 * @param queueSize : size of the queue of the scheduler
+	 */
+	public TopcellBuilder setDram(int nbBanks, int rowSize, int tRCD, int tCAS, int tRP, int tBurst, Dram.PagePolicy policy, int queueSize) {
+		dram = true;
+		dram_banks = nbBanks;
+		dram_row = rowSize;
+		dram_trcd = tRCD;
+		dram_tcas = tCAS;
+		dram_trp = tRP;
+		dram_tburst = tBurst;
+		dram_page = policy;
+		dram_queue = queueSize;
+		return this;
+	}
+
+	public TopcellBuilder setProtocol(Protocol protocol) {
+		this.protocol = protocol;
+		return this;
+	}
+
+	/**
+	 * @param base : base address of the memory
+	 * @param size : size of the memory in bytes
+	 */
+	public TopcellBuilder setMemory(long base, long size) {
+		mem_base = base;
+		mem_size = size;
+		return this;
+	}
+
+	/**
+	 * @param interleave : size in bytes of the blocks owned in turn by the memory controllers, multiple of the line size;
+	 *                     0 to divide the memory in as many contiguous parts as memory controllers
+	 */
+	public TopcellBuilder setInterleave(int interleave) {
+		this.interleave = interleave;
+		return this;
+	}
+
+	/**
+	 * @param format : encoding of the lists of copies in the directories
+	 * @param param : number of pointers for LIMITED_POINTER, number of caches per bit for COARSE_VECTOR, unused for BIT_VECTOR
+	 */
+	public TopcellBuilder setDirectory(DirectoryFormat format, int param) {
+		dir_format = format;
+		dir_param = param;
+		return this;
+	}
+
+	/**
+	 * Sets the parameters found in the properties file
+	 * @throws IllegalArgumentException if a value is invalid
+	 */
+	public TopcellBuilder load(String filename) throws IOException {
+		Properties props = new Properties();
+		Reader reader = new FileReader(filename);
+		try {
+			props.load(reader);
+		}
+		finally {
+			reader.close();
+		}
+		return load(props);
+	}
+
+	/**
+	 * Sets the parameters found in props
+	 * @throws IllegalArgumentException if a value is invalid
+	 */
+	public TopcellBuilder load(Properties props) {
+		nb_procs = intProperty(props, "procs", nb_procs);
+		nb_rams = intProperty(props, "mems", nb_rams);
+		nways = intProperty(props, "nways", nways);
+		nsets = intProperty(props, "nsets", nsets);
+		nwords = intProperty(props, "nwords", nwords);
+		nb_mshrs = intProperty(props, "mshrs", nb_mshrs);
+		nb_transactions = intProperty(props, "transactions", nb_transactions);
+		multicast = booleanProperty(props, "multicast", multicast);
+		dram = booleanProperty(props, "dram", dram);
+		dram_banks = intProperty(props, "dram.banks", dram_banks);
+		dram_row = intProperty(props, "dram.row", dram_row);
+		dram_trcd = intProperty(props, "dram.trcd", dram_trcd);
+		dram_tcas = intProperty(props, "dram.tcas", dram_tcas);
+		dram_trp = intProperty(props, "dram.trp", dram_trp);
+		dram_tburst = intProperty(props, "dram.tburst", dram_tburst);
+		dram_queue = intProperty(props, "dram.queue", dram_queue);
+		mem_base = longProperty(props, "memory.base", mem_base);
+		mem_size = longProperty(props, "memory.size", mem_size);
+		interleave = intProperty(props, "interleave", interleave);
+		String val = props.getProperty("protocol");
+		if (val != null) {
+			try {
+				protocol = Protocol.valueOf(val.trim().toUpperCase());
+			}
+			catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("unknown protocol '" + val.trim() + "'");
+			}
+		}
+		val = props.getProperty("dram.page");
+		if (val != null) {
+			try {
+				dram_page = Dram.PagePolicy.valueOf(val.trim().toUpperCase());
+			}
+			catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("unknown page policy '" + val.trim() + "'");
+			}
+		}
+		val = props.getProperty("directory");
+		if (val != null) {
+			String [] fields = val.trim().toLowerCase().split(":");
+			if (fields[0].equals("bitvector") && fields.length == 1) {
+				setDirectory(DirectoryFormat.BIT_VECTOR, 0);
+			}
+			else if (fields[0].equals("pointers") && fields.length == 2) {
+				setDirectory(DirectoryFormat.LIMITED_POINTER, Integer.parseInt(fields[1]));
+			}
+			else if (fields[0].equals("coarse") && fields.length == 2) {
+				setDirectory(DirectoryFormat.COARSE_VECTOR, Integer.parseInt(fields[1]));
+			}
+			else {
+				throw new IllegalArgumentException("unknown directory format '" + val.trim() + "'");
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * @return a new topcell with the parameters of the builder
+	 * @throws IllegalArgumentException if the parameters are inconsistent
+	 */
+	public Topcell build() {
+		check();
+		return new TopNProcsMRams(this);
+	}
+
+	/**
+	 * @return an empty list of copies with the directory encoding, covering the srcids of the L1 caches
+	 */
+	CopiesList newDirFormat() {
+		switch (dir_format) {
+		case LIMITED_POINTER:
+			return new LimitedPointerCopiesList(L1Controller.l1StartId, nb_procs, dir_param);
+		case COARSE_VECTOR:
+			return new CoarseVectorCopiesList(L1Controller.l1StartId, nb_procs, dir_param);
+		default:
+			return new BitVectorCopiesList(L1Controller.l1StartId, nb_procs);
+		}
+	}
+
+	/**
+	 * @return a new DRAM model with the parameters of the builder, null if the accesses are not timed
+	 */
+	Dram newDram() {
+		if (!dram) {
+			return null;
+		}
+		return new Dram(dram_banks, dram_row, dram_trcd, dram_tcas, dram_trp, dram_tburst, dram_page, dram_queue, nwords);
+	}
+
+	/**
+	 * @return the size in bytes of the blocks of memory owned by the memory controllers
+	 */
+	long blockSize() {
+		return interleave == 0 ? mem_size / nb_rams : interleave;
+	}
+
+	private void check() {
+		if (protocol != Protocol.WTI) {
+			// a write in an MESI L1 cache waits forever for a GETM response which is never requested
+			throw new IllegalArgumentException("the protocol " + protocol.name().toLowerCase()
+					+ " is not supported: its L1 controllers deadlock on the writes, use wti");
+		}
+		if (nb_procs <= 0 || nb_rams <= 0) {
+			throw new IllegalArgumentException("the numbers of processors and memories must be positive");
+		}
+		if (nways <= 0 || nsets <= 0 || nwords <= 0 || Integer.bitCount(nsets) != 1 || Integer.bitCount(nwords) != 1) {
+			throw new IllegalArgumentException("invalid cache geometry");
+		}
+		if (nb_mshrs < 0) {
+			throw new IllegalArgumentException("the number of MSHRs cannot be negative");
+		}
+		if (nb_transactions < 0) {
+			throw new IllegalArgumentException("the number of transactions cannot be negative");
+		}
+		int lineSize = 4 * nwords;
+		long block = blockSize();
+		if (interleave < 0 || block <= 0 || block % lineSize != 0 || block > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("the memory blocks must be a positive multiple of the line size (" + lineSize + " bytes)");
+		}
+		if (mem_base % lineSize != 0 || mem_size % (block * nb_rams) != 0) {
+			throw new IllegalArgumentException("the memory must be aligned on lines and made of a whole number of blocks per memory");
+		}
+		if ((dir_format != DirectoryFormat.BIT_VECTOR) && dir_param <= 0) {
+			throw new IllegalArgumentException("the directory format needs a positive parameter");
+		}
+		if (dram && (dram_banks <= 0 || dram_row <= 0 || dram_row % lineSize != 0 || dram_queue <= 0)) {
+			throw new IllegalArgumentException("the DRAM needs banks, a queue and rows made of whole lines");
+		}
+		if (dram && (dram_trcd < 0 || dram_tcas < 0 || dram_trp < 0 || dram_tburst <= 0)) {
+			throw new IllegalArgumentException("the DRAM timings cannot be negative, and the burst must last at least a cycle");
+		}
+	}
+
+	private static int intProperty(Properties props, String key, int def) {
+		long val = longProperty(props, key, def);
+		if (val != (int) val) {
+			throw new IllegalArgumentException(key + ": value out of range");
+		}
+		return (int) val;
+	}
+
+	private static boolean booleanProperty(Properties props, String key, boolean def) {
+		String val = props.getProperty(key);
+		if (val == null) {
+			return def;
+		}
+		if (val.trim().equalsIgnoreCase("true")) {
+			return true;
+		}
+		if (val.trim().equalsIgnoreCase("false")) {
+			return false;
+		}
+		throw new IllegalArgumentException(key + ": expected true or false instead of '" + val.trim() + "'");
+	}
+
+	private static long longProperty(Properties props, String key, long def) {
+		String val = props.getProperty(key);
+		if (val == null) {
+			return def;
+		}
+		try {
+			return Long.decode(val.trim());
+		}
+		catch (NumberFormatException e) {
+			throw new IllegalArgumentException(key + ": invalid number '" + val.trim() + "'");
+		}
+	}
+
+}
@@ -0,0 +1,209 @@
+package utils;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Leveled trace of the simulation, written by a background thread.
+ * Each record is associated to a level and to the name of the module which emits it. The level of a module is
+ * the level of the longest module name prefix given to setLevel(String, Level), or the global level if none.
+ * The caller must test on() before building the record, so that no string is built for a disabled trace:
+ *   if (Trace.on(Level.DEBUG, m_name)) {
+ *       Trace.log(m_name + " sends req:\n" + req);
+ *   }
+ * When all the levels are OFF, on() costs a single comparison.
+ * Records are queued and printed in order by a daemon thread; flush() waits until they have all been printed.
+ * The queue is bounded: when the simulation logs faster than the records are printed, log() blocks until the
+ * writer has made room, so that a verbose trace slows the simulation down instead of filling the heap.
+ * @author QLM
+ */
+public abstract class Trace {
+
+	public enum Level {
+		OFF,
+		INFO,
+		DEBUG,
+		TRACE,
+	}
+
+	private static volatile Level s_level = Level.TRACE;
+	// highest level among the global level and the module levels, to reject disabled records without lookup
+	private static volatile int s_max_level = Level.TRACE.ordinal();
+	private static final List<String> s_prefixes = new ArrayList<String>();
+	private static final List<Level> s_prefix_levels = new ArrayList<Level>();
+	// level of each module name already looked up, cleared when the levels change
+	private static final Map<String, Level> s_module_levels = new ConcurrentHashMap<String, Level>();
+
+	private static volatile PrintStream s_out = System.out;
+	// maximum number of records queued and not yet printed
+	private static final int queueSize = 1 << 14;
+	private static final LinkedBlockingQueue<String> s_queue = new LinkedBlockingQueue<String>(queueSize);
+	private static final Object s_lock = new Object();
+	// number of records queued and not yet printed, protected by s_lock
+	private static long s_pending = 0;
+	private static Thread s_writer = null;
+
+	/**
+	 * Sets the global level, used by the modules which have no level of their own
+	 */
+	public static synchronized void setLevel(Level level) {
+		s_level = level;
+		updateLevels();
+	}
+
+	/**
+	 * Sets the level of the modules whose name starts with prefix
+	 */
+	public static synchronized void setLevel(String prefix, Level level) {
+		int i = s_prefixes.indexOf(prefix);
+		if (i == -1) {
+			s_prefixes.add(prefix);
+			s_prefix_levels.add(level);
+		}
+		else {
+			s_prefix_levels.set(i, level);
+		}
+		updateLevels();
+	}
+
+	/**
+	 * Removes the levels of the modules, all of them using the global level
+	 */
+	public static synchronized void clearModuleLevels() {
+		s_prefixes.clear();
+		s_prefix_levels.clear();
+		updateLevels();
+	}
+
+	private static void updateLevels() {
+		int max = s_level.ordinal();
+		for (Level l : s_prefix_levels) {
+			max = Math.max(max, l.ordinal());
+		}
+		s_module_levels.clear();
+		s_max_level = max;
+	}
+
+	/**
+	 * Sets the stream on which the records are printed; the records already queued may be printed on either stream
+	 */
+	public static void setOutput(PrintStream out) {
+		s_out = out;
+	}
+
+	/**
+	 * @param level
+	 * @param module Name of the module emitting the record
+	 * @return true if a record of this level emitted by this module must be logged
+	 */
+	public static boolean on(Level level, String module) {
+		if (level.ordinal() > s_max_level) {
+			return false;
+		}
+		Level l = s_module_levels.get(module);
+		if (l == null) {
+			l = moduleLevel(module);
+		}
+		return level.ordinal() <= l.ordinal();
+	}
+
+	private static synchronized Level moduleLevel(String module) {
+		Level res = s_level;
+		int len = -1;
+		for (int i = 0; i < s_prefixes.size(); i++) {
+			String prefix = s_prefixes.get(i);
+			if (module.startsWith(prefix) && prefix.length() > len) {
+				res = s_prefix_levels.get(i);
+				len = prefix.length();
+			}
+		}
+		s_module_levels.put(module, res);
+		return res;
+	}
+
+	/**
+	 * Queues a record, which must have been enabled by on(); waits while the queue is full
+	 * @param record
+	 */
+	public static void log(String record) {
+		synchronized (s_lock) {
+			if (s_writer == null) {
+				startWriter();
+			}
+			s_pending++;
+		}
+		boolean interrupted = false;
+		while (true) {
+			try {
+				s_queue.put(record);
+				break;
+			}
+			catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Queues a record if it is enabled; to be used only for records which do not need to be built
+	 */
+	public static void log(Level level, String module, String record) {
+		if (on(level, module)) {
+			log(record);
+		}
+	}
+
+	private static void startWriter() {
+		s_writer = new Thread("Trace writer") {
+			public void run() {
+				while (true) {
+					String record;
+					try {
+						record = s_queue.take();
+					}
+					catch (InterruptedException e) {
+						continue;
+					}
+					s_out.println(record);
+					synchronized (s_lock) {
+						s_pending--;
+						if (s_pending == 0) {
+							s_out.flush();
+							s_lock.notifyAll();
+						}
+					}
+				}
+			}
+		};
+		s_writer.setDaemon(true);
+		s_writer.start();
+	}
+
+	/**
+	 * Waits until all the records queued have been printed
+	 */
+	public static void flush() {
+		synchronized (s_lock) {
+			boolean interrupted = false;
+			while (s_pending != 0) {
+				try {
+					s_lock.wait();
+				}
+				catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+}
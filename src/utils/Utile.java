@@ -1,7 +1,5 @@
 package utils;
 
-import java.util.Random;
-
 /**
  * Utility static functions
  * @author QLM
@@ -9,17 +7,6 @@ import java.util.Random;
  */
 public abstract class Utile {
 
-	public static int randInt(int min, int max) {
-
-		Random rand = new Random();
-
-		// nextInt is exclusive of the top value,
-		// adding 1 to make it inclusive
-		int randomNum = rand.nextInt((max - min) + 1) + min;
-
-		return randomNum;
-	}
-
 	public static int log2(int n) {
 		if (n == 0) {
 			return -1;
@@ -3,17 +3,25 @@ package view;
 import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import javax.swing.JPanel;
 
 import controller.Controller;
+import model.FinishedRequestList;
 import model.Request;
 import model.Request.cmd_t;
 
 
 /**
  * This class, derived from JPanel, constitutes the main chronogram.
+ * The requests are drawn on tiles covering tileCycles cycles, which are kept until a new request crosses them;
+ * a repaint only draws the tiles crossing the clip rectangle, and renders those which are not kept.
  * @author QLM
  * 
  */
@@ -30,11 +38,40 @@ public class Chrono extends JPanel {
 	
 	private static final double cos_alpha = Math.sqrt(3) / 2;
 	private static final double sin_alpha = 0.5;
+	
+	// number of cycles of a tile, and maximum number of tiles kept
+	private static final int tileCycles = 8;
+	private static final int maxTiles = 24;
+	// number of lines of the label of a request, which can extend below the end of the request
+	private static final int labelLines = 3;
 
 	private Controller controlleur;
 	
 	private ModulePosition modulePositionCM;
 	private ModulePosition modulePositionPCM;
+	
+	/**
+	 * Tiles already rendered, indexed by their number, with the state for which they are valid: the finished requests
+	 * lists, the number of requests of these lists already indexed (i.e. whose tiles have been invalidated), the
+	 * width of the panel, the display of the processors and the height of the labels
+	 */
+	private Map<Integer, BufferedImage> m_tiles = new LinkedHashMap<Integer, BufferedImage>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry<Integer, BufferedImage> eldest) {
+			return size() > maxTiles;
+		}
+	};
+	private List<Request> m_cache_reqs = null;
+	private List<Request> m_proc_reqs = null;
+	private int m_nb_cache_indexed = 0;
+	private int m_nb_proc_indexed = 0;
+	private int m_max_cache_duration = 0;
+	private int m_max_proc_duration = 0;
+	private int m_tiles_width = -1;
+	private boolean m_tiles_disp_procs = false;
+	private int m_label_cycles = 0;
+	private int m_scroll_size = -1;
 
 	public Chrono(Controller c, ModulePosition modulePositionCM, ModulePosition modulePositionPCM) {
 		controlleur = c;
@@ -48,8 +85,9 @@ public class Chrono extends JPanel {
 
 		int nbCycles = controlleur.getTopcell().getNbCycles();
 		int nbPixelsY = nbCycles * pixelsPerCycle;
+		boolean dispProcs = controlleur.getVue().getPanneau().doesDispProcs();
 		int nbComponents;
-		if (controlleur.getVue().getPanneau().doesDispProcs()) {
+		if (dispProcs) {
 			nbComponents = modulePositionPCM.getOrderedModules().size();
 		}
 		else {
@@ -68,42 +106,139 @@ public class Chrono extends JPanel {
 			}
 		}
 		
-		for (Request req : controlleur.getTopcell().getFinishedCacheRequests()) {
-			g2.setPaint(getRequestColor(req.getCmd()));
-			int i_start;
-			int i_end;
-			if (controlleur.getVue().getPanneau().doesDispProcs()) {
-				i_start = modulePositionPCM.getModuleIndex(req.getSrcid());
-				i_end = modulePositionPCM.getModuleIndex(req.getTgtid());
+		// Requests are drawn on tiles of tileCycles cycles, only for the tiles crossing the clip rectangle
+		List<Request> cacheReqs = controlleur.getTopcell().getFinishedCacheRequests();
+		List<Request> procReqs = controlleur.getTopcell().getFinishedProcsRequests();
+		int labelCycles = (labelLines * g2.getFontMetrics().getHeight() + pixelsPerCycle - 1) / pixelsPerCycle;
+		if (cacheReqs != m_cache_reqs || procReqs != m_proc_reqs || cacheReqs.size() < m_nb_cache_indexed
+				|| procReqs.size() < m_nb_proc_indexed || this.getWidth() != m_tiles_width
+				|| dispProcs != m_tiles_disp_procs || labelCycles != m_label_cycles) {
+			m_cache_reqs = cacheReqs;
+			m_proc_reqs = procReqs;
+			m_nb_cache_indexed = 0;
+			m_nb_proc_indexed = 0;
+			m_max_cache_duration = 0;
+			m_max_proc_duration = 0;
+			m_tiles_width = this.getWidth();
+			m_tiles_disp_procs = dispProcs;
+			m_label_cycles = labelCycles;
+			m_tiles.clear();
+		}
+		m_max_cache_duration = indexNewRequests(cacheReqs, m_nb_cache_indexed, m_max_cache_duration);
+		m_nb_cache_indexed = cacheReqs.size();
+		m_max_proc_duration = indexNewRequests(procReqs, m_nb_proc_indexed, m_max_proc_duration);
+		m_nb_proc_indexed = procReqs.size();
+
+		int tileHeight = tileCycles * pixelsPerCycle;
+		Rectangle clip = g2.getClipBounds();
+		if (clip == null) {
+			clip = new Rectangle(0, 0, this.getWidth(), this.getHeight());
+		}
+		int firstTile = Math.max(0, clip.y / tileHeight);
+		int lastTile = Math.min((clip.y + clip.height - 1) / tileHeight, (nbCycles + labelCycles) / tileCycles);
+		if (this.getWidth() > 0 && nbComponents > 0) {
+			for (int tile = firstTile; tile <= lastTile; tile++) {
+				BufferedImage img = m_tiles.get(tile);
+				if (img == null) {
+					img = renderTile(tile, nbComponents, dispProcs, g2);
+					m_tiles.put(tile, img);
+				}
+				g2.drawImage(img, 0, tile * tileHeight, null);
 			}
-			else {
-				i_start = modulePositionCM.getModuleIndex(req.getSrcid());
-				i_end = modulePositionCM.getModuleIndex(req.getTgtid());
+		}
+
+		if (nbPixelsY + 5 != m_scroll_size) {
+			m_scroll_size = nbPixelsY + 5;
+			controlleur.getVue().getPanneau().setScrollSize(m_scroll_size);
+		}
+	}
+	
+	
+	/**
+	 * Reads the requests of reqs from index first, which have been added since the last repaint, and removes the tiles they cross
+	 * @return the maximum duration of the requests of reqs, given the maximum maxDuration of the requests before first
+	 */
+	private int indexNewRequests(List<Request> reqs, int first, int maxDuration) {
+		for (int i = first; i < reqs.size(); i++) {
+			Request req = reqs.get(i);
+			maxDuration = Math.max(maxDuration, req.getEndCycle() - req.getStartCycle());
+			int lastTile = (req.getEndCycle() + m_label_cycles) / tileCycles;
+			for (int tile = req.getStartCycle() / tileCycles; tile <= lastTile; tile++) {
+				m_tiles.remove(tile);
 			}
+		}
+		return maxDuration;
+	}
+	
+	
+	/**
+	 * Draws the requests crossing the cycles of the tile on a transparent image
+	 */
+	private BufferedImage renderTile(int tile, int nbComponents, boolean dispProcs, Graphics2D g) {
+		BufferedImage img = new BufferedImage(this.getWidth(), tileCycles * pixelsPerCycle, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g2 = img.createGraphics();
+		g2.setRenderingHints(g.getRenderingHints());
+		g2.setFont(g.getFont());
+		g2.translate(0, -tile * tileCycles * pixelsPerCycle);
+		int firstCycle = tile * tileCycles;
+		int lastCycle = firstCycle + tileCycles - 1;
+		if (dispProcs) {
+			drawRequests(g2, m_cache_reqs, firstCycle, lastCycle, m_max_cache_duration, nbComponents, modulePositionPCM);
+			drawRequests(g2, m_proc_reqs, firstCycle, lastCycle, m_max_proc_duration, nbComponents, modulePositionPCM);
+		}
+		else {
+			drawRequests(g2, m_cache_reqs, firstCycle, lastCycle, m_max_cache_duration, nbComponents, modulePositionCM);
+		}
+		g2.dispose();
+		return img;
+	}
+	
+	
+	/**
+	 * Draws the requests of reqs whose arrow or label cross the cycles from firstCycle to lastCycle. Since the requests
+	 * are sorted by end cycle, these are found among the requests ending from firstCycle - m_label_cycles to
+	 * lastCycle + maxDuration.
+	 */
+	private void drawRequests(Graphics2D g2, List<Request> reqs, int firstCycle, int lastCycle, int maxDuration,
+			int nbComponents, ModulePosition modulePosition) {
+		int last = indexOfEndCycle(reqs, lastCycle + maxDuration + 1);
+		for (int i = indexOfEndCycle(reqs, firstCycle - m_label_cycles); i < last; i++) {
+			Request req = reqs.get(i);
+			if (req.getStartCycle() > lastCycle) {
+				continue;
+			}
+			g2.setPaint(getRequestColor(req.getCmd()));
+			int i_start = modulePosition.getModuleIndex(req.getSrcid());
+			int i_end = modulePosition.getModuleIndex(req.getTgtid());
 			int x_start = this.getWidth() / (nbComponents * 2) + i_start * this.getWidth() / nbComponents;
 			int x_end = this.getWidth() / (nbComponents * 2) + i_end * this.getWidth() / nbComponents;
 			int y_start = req.getStartCycle() * pixelsPerCycle;
 			int y_end = req.getEndCycle() * pixelsPerCycle;
-			drawArrow(g2, x_start, y_start, x_end, y_end);
+			drawArrow(g2, x_start, y_start + startArrowoffset, x_end, y_end + endArrowoffset);
 			printRequestInfo(g2, req, (x_start + x_end) / 2, (y_start + y_end) / 2);
 		}
-		
-		// Requests between processors and L1 caches
-		if (controlleur.getVue().getPanneau().doesDispProcs()) {
-			for (Request req : controlleur.getTopcell().getFinishedProcsRequests()) {
-				g2.setPaint(getRequestColor(req.getCmd()));
-				int i_start = modulePositionPCM.getModuleIndex(req.getSrcid());
-				int i_end = modulePositionPCM.getModuleIndex(req.getTgtid());
-				int x_start = this.getWidth() / (nbComponents * 2) + i_start * this.getWidth() / nbComponents;
-				int x_end = this.getWidth() / (nbComponents * 2) + i_end * this.getWidth() / nbComponents;
-				int y_start = req.getStartCycle() * pixelsPerCycle;
-				int y_end = req.getEndCycle() * pixelsPerCycle;
-				drawArrow(g2, x_start, y_start + startArrowoffset, x_end, y_end + endArrowoffset);
-				printRequestInfo(g2, req, (x_start + x_end) / 2, (y_start + y_end) / 2);
+	}
+	
+	
+	/**
+	 * @return the index of the first request of reqs, sorted by end cycle, ending at or after cycle
+	 */
+	private static int indexOfEndCycle(List<Request> reqs, int cycle) {
+		if (reqs instanceof FinishedRequestList) {
+			return ((FinishedRequestList) reqs).indexOfEndCycle(cycle);
+		}
+		int lo = 0;
+		int hi = reqs.size();
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (reqs.get(mid).getEndCycle() < cycle) {
+				lo = mid + 1;
+			}
+			else {
+				hi = mid;
 			}
 		}
-
-		controlleur.getVue().getPanneau().setScrollSize(nbPixelsY + 5);
+		return lo;
 	}
 	
 	
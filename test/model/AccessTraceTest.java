@@ -0,0 +1,140 @@
+package model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.junit.jupiter.api.io.TempDir;
+
+import model.Request.cmd_t;
+import topcells.Topcell;
+import topcells.TopcellBuilder;
+import utils.Trace;
+import utils.Trace.Level;
+
+/**
+ * Round trips through AccessTraceWriter and AccessTraceReader, and replay of an access trace by a processor.
+ * @author QLM
+ */
+public class AccessTraceTest {
+
+	@TempDir
+	Path m_dir;
+
+	@BeforeAll
+	static void setUp() {
+		Trace.setLevel(Level.OFF);
+	}
+
+	@Test
+	public void accessesAreReadBackInOrder() throws IOException {
+		Path path = m_dir.resolve("p0.trc");
+		Random rand = new Random(1);
+		int nbAccesses = 50000;
+		boolean [] writes = new boolean[nbAccesses];
+		int [] gaps = new int[nbAccesses];
+		long [] addresses = new long[nbAccesses];
+		long [] data = new long[nbAccesses];
+		try (AccessTraceWriter writer = new AccessTraceWriter(path)) {
+			for (int i = 0; i < nbAccesses; i++) {
+				writes[i] = rand.nextBoolean();
+				gaps[i] = rand.nextInt(4) == 0 ? rand.nextInt(Integer.MAX_VALUE) : rand.nextInt(3);
+				// the addresses jump backwards as well as forwards
+				addresses[i] = rand.nextInt(4) == 0 ? rand.nextLong() & ~3L : (rand.nextInt(1 << 16) & ~3L);
+				if (writes[i]) {
+					data[i] = i % 5 == 0 ? Long.MIN_VALUE : rand.nextLong();
+					writer.addWrite(gaps[i], addresses[i], data[i]);
+				}
+				else {
+					writer.addRead(gaps[i], addresses[i]);
+				}
+			}
+			assertEquals(nbAccesses, writer.getNbRecords());
+		}
+
+		try (AccessTraceReader reader = new AccessTraceReader(path)) {
+			for (int i = 0; i < nbAccesses; i++) {
+				String msg = "access " + i;
+				assertTrue(reader.next(), msg);
+				assertEquals(writes[i], reader.isWrite(), msg);
+				assertEquals(gaps[i], reader.getGap(), msg);
+				assertEquals(addresses[i], reader.getAddress(), msg);
+				assertEquals(data[i], reader.getData(), msg);
+			}
+			assertFalse(reader.next());
+		}
+	}
+
+	@Test
+	public void truncatedAndForeignFilesAreRejected() throws IOException {
+		Path path = m_dir.resolve("p0.trc");
+		try (AccessTraceWriter writer = new AccessTraceWriter(path)) {
+			writer.addWrite(0, 0x1234, -1);
+		}
+		byte [] bytes = Files.readAllBytes(path);
+		Files.write(path, Arrays.copyOf(bytes, bytes.length - 1));
+		try (final AccessTraceReader reader = new AccessTraceReader(path)) {
+			assertThrows(IOException.class, new Executable() {
+				public void execute() throws IOException {
+					reader.next();
+				}
+			});
+		}
+
+		final Path other = m_dir.resolve("other.trc");
+		Files.write(other, "not a trace".getBytes("US-ASCII"));
+		assertThrows(IOException.class, new Executable() {
+			public void execute() throws IOException {
+				new AccessTraceReader(other).close();
+			}
+		});
+	}
+
+	@Test
+	public void processorReplaysTheTrace() throws IOException {
+		Path path = m_dir.resolve("p0.trc");
+		int nbWords = 64;
+		try (AccessTraceWriter writer = new AccessTraceWriter(path)) {
+			for (int i = 0; i < nbWords; i++) {
+				writer.addWrite(1, 4 * i, 1000 + i);
+			}
+			for (int i = nbWords - 1; i >= 0; i--) {
+				writer.addRead(0, 4 * i);
+			}
+		}
+
+		Properties props = new Properties();
+		props.setProperty("procs", "1");
+		props.setProperty("mems", "1");
+		Topcell topcell = new TopcellBuilder().load(props).build();
+		try (AccessTraceReader reader = new AccessTraceReader(path)) {
+			topcell.getProcessor(0).setTrace(reader, 1);
+			int maxCycles = 100000;
+			while (topcell.getNbCycles() < maxCycles && topcell.skipIdleCycles(maxCycles) < maxCycles) {
+				topcell.simulate1Cycle();
+			}
+		}
+		assertTrue(topcell.getProcessor(0).stopOk());
+
+		int nbReads = 0;
+		for (Request req : topcell.getFinishedProcsRequests()) {
+			if (req.getCmd() == cmd_t.RSP_READ_WORD) {
+				assertEquals(1000 + req.getAddress() / 4, req.getData()[0], "word 0x" + Long.toHexString(req.getAddress()));
+				nbReads++;
+			}
+		}
+		assertEquals(nbWords, nbReads);
+	}
+
+}
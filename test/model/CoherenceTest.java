@@ -0,0 +1,141 @@
+package model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Properties;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import model.Request.cmd_t;
+import topcells.Topcell;
+import topcells.TopcellBuilder;
+import utils.Trace;
+import utils.Trace.Level;
+
+/**
+ * Directed coherence tests on topologies built by TopcellBuilder: the last processor writes increasing values in a
+ * word, while the other ones read it again and again. A reader must never read a value older than a value it has
+ * already read, and must read the last value once the writes are over; a line written in a cache after having been
+ * invalidated breaks both. Each topology is simulated with several seeds, with the default delays and with geometric
+ * delays, so that in some runs the invalidations overtake the lines sent before them by several cycles.
+ * @author QLM
+ */
+public class CoherenceTest {
+
+	private static final int nbSeeds = 20;
+	// mean delay of the channels in the runs with geometric delays
+	private static final double meanDelay = 4;
+	private static final int nbWrites = 40;
+	private static final int maxCycles = 1000000;
+	// word shared by all the processors
+	private static final long shared = 0x0;
+	// line of private words, one per reader
+	private static final long priv = 0x400;
+
+	@BeforeAll
+	static void setUp() {
+		Trace.setLevel(Level.OFF);
+	}
+
+	@Test
+	public void blockingCachesDoNotKeepALineInvalidatedDuringTheirMiss() {
+		checkReadsAreUpToDate("procs=2", "mems=1");
+		checkReadsAreUpToDate("procs=4", "mems=2");
+	}
+
+	@Test
+	public void mshrsDoNotWriteALineInvalidatedDuringItsMiss() {
+		checkReadsAreUpToDate("procs=2", "mems=1", "mshrs=1");
+		checkReadsAreUpToDate("procs=4", "mems=2", "mshrs=4");
+	}
+
+	@Test
+	public void transactionTablesKeepTheLinesOrdered() {
+		checkReadsAreUpToDate("procs=4", "mems=1", "transactions=4");
+		checkReadsAreUpToDate("procs=4", "mems=2", "mshrs=4", "transactions=2");
+	}
+
+	@Test
+	public void multicastInvalidationsKeepTheLinesOrdered() {
+		checkReadsAreUpToDate("procs=4", "mems=1", "multicast=true");
+		checkReadsAreUpToDate("procs=4", "mems=2", "mshrs=4", "transactions=2", "multicast=true");
+	}
+
+	@Test
+	public void dramResponsesAreNotOvertakenByTheInvalidationsOfTheirLine() {
+		checkReadsAreUpToDate("procs=2", "mems=1", "dram=true");
+		checkReadsAreUpToDate("procs=4", "mems=1", "dram=true", "dram.queue=2", "transactions=4");
+		checkReadsAreUpToDate("procs=4", "mems=2", "dram=true", "mshrs=4", "transactions=2", "multicast=true");
+	}
+
+	/**
+	 * Runs the workload on the topology described by the properties, with each seed and each delay model
+	 */
+	private static void checkReadsAreUpToDate(String... params) {
+		Properties props = new Properties();
+		for (String param : params) {
+			String [] fields = param.split("=");
+			props.setProperty(fields[0], fields[1]);
+		}
+		for (int seed = 0; seed < 2 * nbSeeds; seed++) {
+			String run = String.join(" ", params) + ", seed " + seed;
+			Topcell topcell = new TopcellBuilder().load(props).build();
+			topcell.setSeed(seed);
+			if (seed >= nbSeeds) {
+				topcell.setLatencyModel(new GeometricLatency(meanDelay));
+				run += ", geometric delays";
+			}
+			int writer = topcell.getNbProcs() - 1;
+			for (int k = 1; k <= nbWrites; k++) {
+				topcell.getProcessor(writer).addWrite(shared, k);
+				topcell.getProcessor(writer).addWrite(shared + 4, k);
+				for (int r = 0; r < writer; r++) {
+					topcell.getProcessor(r).addRead(shared);
+					topcell.getProcessor(r).addRead(shared);
+					topcell.getProcessor(r).addWrite(priv + 4 * r, k);
+				}
+			}
+			assertTrue(drain(topcell), run + ": the writes do not complete");
+			for (int r = 0; r < writer; r++) {
+				topcell.getProcessor(r).addRead(shared);
+			}
+			assertTrue(drain(topcell), run + ": the last reads do not complete");
+
+			long [] last = new long[writer];
+			for (Request req : topcell.getFinishedProcsRequests()) {
+				if (req.getCmd() == cmd_t.RSP_READ_WORD && req.getAddress() == shared) {
+					int r = req.getTgtid();
+					long val = req.getData()[0];
+					assertTrue(val >= last[r], run + ": processor " + r + " reads " + val + " after " + last[r]);
+					last[r] = val;
+				}
+			}
+			for (int r = 0; r < writer; r++) {
+				assertEquals(nbWrites, last[r], run + ": last value read by processor " + r);
+			}
+		}
+	}
+
+	/**
+	 * Simulates the topcell until no module nor channel has anything left to do
+	 * @return false if the processors have not received all their responses within maxCycles cycles
+	 */
+	static boolean drain(Topcell topcell) {
+		int end = topcell.getNbCycles() + maxCycles;
+		while (topcell.getNbCycles() < end) {
+			if (topcell.skipIdleCycles(maxCycles) == maxCycles) {
+				break;
+			}
+			topcell.simulate1Cycle();
+		}
+		for (int i = 0; i < topcell.getNbProcs(); i++) {
+			if (!topcell.getProcessor(i).stopOk()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,171 @@
+package model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.BitSet;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Encodings of the lists of copies: each list is compared with the set of the caches really owning a copy, which it
+ * must contain (exactly for the exact encodings), through all its accessors and after a store and load in a SparseMemory.
+ * @author QLM
+ */
+public class CopiesListTest {
+
+	private static final int firstId = 10;
+
+	/**
+	 * Checks the list against the srcids of owners (relative to firstId)
+	 */
+	private static void checkList(CopiesList cl, BitSet owners, String msg) {
+		int nbIds = cl.getNbIds();
+		int nbCopies = 0;
+		int expected = cl.nextOwner(0);
+		PrimitiveIterator.OfInt it = cl.sharers();
+		for (int id = firstId; id < firstId + nbIds; id++) {
+			boolean owner = owners.get(id - firstId);
+			if (owner || cl.isExact()) {
+				assertEquals(owner, cl.hasCopy(id), msg + ", srcid " + id);
+			}
+			if (cl.hasCopy(id)) {
+				nbCopies++;
+				assertEquals(expected, id, msg + ", next owner");
+				assertTrue(it.hasNext(), msg);
+				assertEquals(id, it.nextInt(), msg + ", sharer");
+				expected = cl.nextOwner(id + 1);
+			}
+		}
+		assertEquals(-1, expected, msg + ", next owner after the last one");
+		assertFalse(it.hasNext(), msg);
+		assertFalse(cl.hasCopy(firstId - 1), msg);
+		assertFalse(cl.hasCopy(firstId + nbIds), msg);
+		assertEquals(nbCopies, cl.nbCopies(), msg + ", number of copies");
+		assertEquals(nbCopies != 0 ? cl.nextOwner(firstId) : -1, cl.getNextOwner(), msg);
+	}
+
+	/**
+	 * Applies random additions and removals to the list, checking it after each one; the list is also stored in
+	 * the middle of words set to -1, loaded back and copied
+	 */
+	private static void checkRandomOperations(CopiesList cl, long seed) {
+		Random rand = new Random(seed);
+		int nbIds = cl.getNbIds();
+		int nbWords = (cl.entryBits() + 63) / 64;
+		SparseMemory mem = new SparseMemory(nbWords + 2);
+		for (int i = 0; i < nbWords + 2; i++) {
+			mem.set(i, -1);
+		}
+		CopiesList loaded = cl.newList();
+		CopiesList copied = cl.newList();
+		BitSet owners = new BitSet();
+		for (int op = 0; op < 2000; op++) {
+			String msg = cl.getClass().getSimpleName() + " of " + nbIds + " srcids, operation " + op;
+			int r = rand.nextInt(100);
+			if (r == 0) {
+				cl.removeAll();
+				owners.clear();
+			}
+			else {
+				int id = rand.nextInt(nbIds);
+				if (r < 55) {
+					cl.add(firstId + id);
+					owners.set(id);
+				}
+				else {
+					cl.remove(firstId + id);
+					owners.clear(id);
+				}
+			}
+			checkList(cl, owners, msg);
+
+			cl.store(mem, 1);
+			loaded.load(mem, 1);
+			assertEquals(-1, mem.get(0), msg + ", word before the list");
+			assertEquals(-1, mem.get(nbWords + 1), msg + ", word after the list");
+			assertEquals(cl.toString(), loaded.toString(), msg + ", loaded");
+			copied.copy(cl);
+			assertEquals(cl.toString(), copied.toString(), msg + ", copied");
+		}
+	}
+
+	@Test
+	public void bitVectorIsExact() {
+		for (int nbIds : new int[] { 1, 8, 64, 65, 130 }) {
+			CopiesList cl = new BitVectorCopiesList(firstId, nbIds);
+			assertTrue(cl.isExact());
+			assertEquals(nbIds, cl.entryBits());
+			checkRandomOperations(cl, nbIds);
+		}
+	}
+
+	@Test
+	public void limitedPointersContainTheOwners() {
+		for (int nbIds : new int[] { 2, 8, 100 }) {
+			for (int nbPointers : new int[] { 1, 2, 5 }) {
+				CopiesList cl = new LimitedPointerCopiesList(firstId, nbIds, nbPointers);
+				assertFalse(cl.isExact());
+				checkRandomOperations(cl, nbIds * 10 + nbPointers);
+			}
+		}
+	}
+
+	@Test
+	public void limitedPointersBroadcastOnOverflow() {
+		CopiesList cl = new LimitedPointerCopiesList(firstId, 8, 2);
+		// overflow bit, count of 0..2 on 2 bits, 2 pointers of 3 bits
+		assertEquals(1 + 2 + 2 * 3, cl.entryBits());
+		cl.add(firstId + 5);
+		cl.add(firstId + 3);
+		cl.add(firstId + 3);
+		assertEquals(2, cl.nbCopies());
+		assertEquals(firstId + 3, cl.getNextOwner());
+		assertEquals(firstId + 5, cl.nextOwner(firstId + 4));
+
+		cl.add(firstId + 7);
+		assertEquals(8, cl.nbCopies());
+		for (int id = firstId; id < firstId + 8; id++) {
+			assertTrue(cl.hasCopy(id));
+		}
+		cl.remove(firstId + 3);
+		assertTrue(cl.hasCopy(firstId + 3));
+		assertEquals(8, cl.nbCopies());
+
+		cl.removeAll();
+		assertEquals(0, cl.nbCopies());
+		assertEquals(-1, cl.getNextOwner());
+	}
+
+	@Test
+	public void coarseVectorContainsTheGroupsOfTheOwners() {
+		for (int nbIds : new int[] { 1, 10, 64, 130 }) {
+			for (int groupSize : new int[] { 1, 3, 4 }) {
+				CopiesList cl = new CoarseVectorCopiesList(firstId, nbIds, groupSize);
+				assertEquals(groupSize == 1, cl.isExact());
+				checkRandomOperations(cl, nbIds * 10 + groupSize);
+			}
+		}
+	}
+
+	@Test
+	public void coarseVectorCountsTheLastGroupPartially() {
+		CopiesList cl = new CoarseVectorCopiesList(firstId, 10, 4);
+		assertEquals(3, cl.entryBits());
+		cl.add(firstId + 9);
+		// last group: srcids 8 and 9 only
+		assertEquals(2, cl.nbCopies());
+		assertEquals(firstId + 8, cl.getNextOwner());
+		cl.add(firstId + 1);
+		assertEquals(6, cl.nbCopies());
+		assertEquals(firstId + 2, cl.nextOwner(firstId + 2));
+		assertEquals(firstId + 8, cl.nextOwner(firstId + 4));
+		cl.remove(firstId + 1);
+		assertTrue(cl.hasCopy(firstId + 1));
+		assertFalse(cl.hasCopy(firstId + 4));
+	}
+
+}
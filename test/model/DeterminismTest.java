@@ -0,0 +1,130 @@
+package model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import topcells.Topcell;
+import topcells.TopcellBuilder;
+import utils.Trace;
+import utils.Trace.Level;
+
+/**
+ * A seed fixes a simulation: the sequential kernel, the parallel kernel and the skipping of the idle cycles
+ * must give the same number of cycles and the same finished requests, in the same order.
+ * @author QLM
+ */
+public class DeterminismTest {
+
+	private static final long seed = 7;
+	private static final int nbAccesses = 60;
+	private static final int maxCycles = 1000000;
+
+	private static ForkJoinPool m_pool;
+
+	@BeforeAll
+	static void setUp() {
+		Trace.setLevel(Level.OFF);
+		m_pool = new ForkJoinPool(4);
+	}
+
+	@AfterAll
+	static void tearDown() {
+		m_pool.shutdown();
+	}
+
+	/**
+	 * Builds the topology and queues random reads and writes, drawn from the seed, on words shared by all the processors
+	 */
+	private static Topcell newTopcell(String... params) {
+		Properties props = new Properties();
+		for (String param : params) {
+			String [] fields = param.split("=");
+			props.setProperty(fields[0], fields[1]);
+		}
+		Topcell topcell = new TopcellBuilder().load(props).build();
+		topcell.setSeed(seed);
+		Random rand = new Random(seed);
+		for (int i = 0; i < topcell.getNbProcs(); i++) {
+			for (int k = 0; k < nbAccesses; k++) {
+				long address = 4 * rand.nextInt(0x200);
+				if (rand.nextInt(4) == 0) {
+					topcell.getProcessor(i).addWrite(address, rand.nextInt());
+				}
+				else {
+					topcell.getProcessor(i).addRead(address);
+				}
+			}
+		}
+		return topcell;
+	}
+
+	/**
+	 * Simulates the topcell until all the processors can stop, as the batch simulator does
+	 */
+	private static void run(Topcell topcell, boolean skipIdle) {
+		while (topcell.getNbCycles() < maxCycles && !allProcsStopOk(topcell)) {
+			if (skipIdle) {
+				topcell.skipIdleCycles(maxCycles - topcell.getNbCycles());
+			}
+			topcell.simulate1Cycle();
+		}
+		assertTrue(allProcsStopOk(topcell), "the processors have not finished");
+	}
+
+	private static boolean allProcsStopOk(Topcell topcell) {
+		for (int i = 0; i < topcell.getNbProcs(); i++) {
+			if (!topcell.getProcessor(i).stopOk()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void assertSameRequests(List<Request> expected, List<Request> actual, String msg) {
+		assertEquals(expected.size(), actual.size(), msg + ", number of finished requests");
+		for (int i = 0; i < expected.size(); i++) {
+			TransactionTraceTest.assertSameRequest(expected.get(i), actual.get(i), msg + ", finished request " + i);
+		}
+	}
+
+	/**
+	 * Runs the topology with the sequential kernel, then with the parallel kernel and with the idle cycles skipped
+	 */
+	private static void checkKernelsAgree(String... params) {
+		Topcell reference = newTopcell(params);
+		run(reference, false);
+		for (int variant = 1; variant < 4; variant++) {
+			boolean parallel = (variant & 1) != 0;
+			boolean skipIdle = (variant & 2) != 0;
+			String msg = String.join(" ", params) + (parallel ? ", parallel" : "") + (skipIdle ? ", idle cycles skipped" : "");
+			Topcell topcell = newTopcell(params);
+			if (parallel) {
+				topcell.setParallelPool(m_pool);
+			}
+			run(topcell, skipIdle);
+			assertEquals(reference.getNbCycles(), topcell.getNbCycles(), msg + ", number of cycles");
+			assertSameRequests(reference.getFinishedCacheRequests(), topcell.getFinishedCacheRequests(), msg + ", caches");
+			assertSameRequests(reference.getFinishedProcsRequests(), topcell.getFinishedProcsRequests(), msg + ", processors");
+		}
+	}
+
+	@Test
+	public void blockingControllersGiveTheSameSimulation() {
+		checkKernelsAgree("procs=4", "mems=2", "interleave=0x400");
+	}
+
+	@Test
+	public void pipelinedControllersGiveTheSameSimulation() {
+		checkKernelsAgree("procs=16", "mems=4", "interleave=0x400", "mshrs=4", "transactions=4", "multicast=true", "dram=true");
+	}
+
+}
@@ -0,0 +1,111 @@
+package model;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import model.Request.cmd_t;
+
+/**
+ * Timing and queue of the DRAM model, driven as a memory controller does: at each cycle, the response of a completed
+ * access is taken, then the scheduler issues an access.
+ * @author QLM
+ */
+public class DramTest {
+
+	private static final int nwords = 8;
+	private static final int tRCD = 10;
+	private static final int tCAS = 10;
+	private static final int tRP = 10;
+	private static final int tBurst = 4;
+
+	/**
+	 * Two banks of rows of 0x800 bytes: the lines 0x0 and 0x20 are in the same row of bank 0,
+	 * the line 0x1000 in another row of bank 0
+	 */
+	private static Dram newDram(int queueSize) {
+		return new Dram(2, 0x800, tRCD, tCAS, tRP, tBurst, Dram.PagePolicy.OPEN, queueSize, nwords);
+	}
+
+	/**
+	 * Reads the line at cycle start and takes its response
+	 * @return the number of cycles before the response
+	 */
+	private static int readLatency(Dram dram, int start, long line) {
+		dram.read(line, 10, cmd_t.RSP_READ_LINE, new long[nwords]);
+		int cycle = start;
+		while (!dram.hasResponse(cycle)) {
+			dram.simulate1Cycle(cycle);
+			cycle++;
+		}
+		dram.popResponse();
+		return cycle - start;
+	}
+
+	@Test
+	public void responseCarriesTheDataReadWhenTheAccessCompletes() {
+		Dram dram = newDram(4);
+		long [] line = new long[nwords];
+		line[3] = 42;
+		dram.read(0x40, 10, cmd_t.RSP_READ_LINE, line);
+		line[3] = 0;
+		assertTrue(dram.hasPendingResponse(0x40));
+		assertFalse(dram.hasPendingResponse(0x60));
+
+		int cycle = 0;
+		while (!dram.hasResponse(cycle)) {
+			dram.simulate1Cycle(cycle);
+			cycle++;
+		}
+		assertEquals(tRCD + tCAS + tBurst, cycle);
+		assertEquals(0x40, dram.getResponseAddress());
+		assertEquals(10, dram.getResponseTgtid());
+		assertEquals(cmd_t.RSP_READ_LINE, dram.getResponseCmd());
+		long [] expected = new long[nwords];
+		expected[3] = 42;
+		assertArrayEquals(expected, dram.getResponseData());
+		assertTrue(dram.hasPendingResponse(0x40));
+		dram.popResponse();
+		assertFalse(dram.hasPendingResponse(0x40));
+		assertEquals(Integer.MAX_VALUE, dram.nextEventCycle(cycle));
+	}
+
+	@Test
+	public void rowHitsAreFasterThanRowConflicts() {
+		Dram dram = newDram(4);
+		int cycle = 0;
+		int latency = readLatency(dram, cycle, 0x0);
+		assertEquals(tRCD + tCAS + tBurst, latency);
+		cycle += latency;
+		latency = readLatency(dram, cycle, 0x20);
+		assertEquals(tCAS + tBurst, latency);
+		cycle += latency;
+		latency = readLatency(dram, cycle, 0x1000);
+		assertEquals(tRP + tRCD + tCAS + tBurst, latency);
+		assertEquals(1, dram.getNbRowHits());
+		assertEquals(1, dram.getNbRowMisses());
+		assertEquals(1, dram.getNbRowConflicts());
+	}
+
+	@Test
+	public void postedWritesTakeAnEntryOfTheQueueAndHaveNoResponse() {
+		Dram dram = newDram(2);
+		dram.write(0x0, 10, cmd_t.NOP);
+		dram.write(0x1000, 10, cmd_t.NOP);
+		assertTrue(dram.isFull());
+		assertFalse(dram.hasPendingResponse(0x0));
+
+		int cycle = 0;
+		while (dram.nextEventCycle(cycle) != Integer.MAX_VALUE) {
+			assertFalse(dram.hasResponse(cycle));
+			dram.simulate1Cycle(cycle);
+			cycle++;
+		}
+		assertFalse(dram.isFull());
+		assertEquals(1, dram.getNbRowConflicts());
+	}
+
+}
@@ -0,0 +1,124 @@
+package model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * FinishedRequestList with and without a window: the spilled requests must be read back identical in any order, and
+ * indexOfEndCycle must find the first request ending at or after each cycle, whether it is spilled or in memory.
+ * @author QLM
+ */
+public class FinishedRequestListTest {
+
+	private static final int nbReqs = 5000;
+	// number of requests ending at each cycle
+	private static final int reqsPerCycle = 3;
+	private static final int window = 100;
+
+	@TempDir
+	Path m_dir;
+
+	private static List<Request> fill(FinishedRequestList list) {
+		Random rand = new Random(1);
+		List<Request> reqs = new ArrayList<Request>();
+		for (int i = 0; i < nbReqs; i++) {
+			Request req = TransactionTraceTest.randomRequest(rand, i / reqsPerCycle);
+			list.add(req);
+			reqs.add(req);
+		}
+		return reqs;
+	}
+
+	/**
+	 * Compares indexOfEndCycle with a linear search, for every cycle of the list and around it
+	 */
+	private static void checkIndexOfEndCycle(FinishedRequestList list, List<Request> reqs) {
+		int lastCycle = reqs.get(reqs.size() - 1).getEndCycle();
+		for (int cycle = -1; cycle <= lastCycle + 2; cycle++) {
+			int expected = 0;
+			while (expected < reqs.size() && reqs.get(expected).getEndCycle() < cycle) {
+				expected++;
+			}
+			assertEquals(expected, list.indexOfEndCycle(cycle), "cycle " + cycle);
+		}
+	}
+
+	@Test
+	public void requestsAreKeptInMemoryWithoutWindow() {
+		FinishedRequestList list = new FinishedRequestList();
+		List<Request> reqs = fill(list);
+		assertEquals(nbReqs, list.size());
+		assertEquals(0, list.getNbSpilled());
+		for (int i = 0; i < nbReqs; i++) {
+			assertSame(reqs.get(i), list.get(i));
+		}
+		checkIndexOfEndCycle(list, reqs);
+	}
+
+	@Test
+	public void oldRequestsAreSpilledAndReadBack() throws IOException {
+		FinishedRequestList list = new FinishedRequestList();
+		list.setWindow(window, m_dir.resolve("spill.bin"));
+		List<Request> reqs = fill(list);
+
+		int lastCycle = (nbReqs - 1) / reqsPerCycle;
+		int nbInMemory = 0;
+		for (Request req : reqs) {
+			if (req.getEndCycle() >= lastCycle - window) {
+				nbInMemory++;
+			}
+		}
+		assertEquals(nbReqs, list.size());
+		assertEquals(nbInMemory, list.getNbInMemory());
+		assertEquals(nbReqs - nbInMemory, list.getNbSpilled());
+
+		// in order, through the iterator
+		Iterator<Request> it = list.iterator();
+		for (int i = 0; i < nbReqs; i++) {
+			assertTrue(it.hasNext());
+			TransactionTraceTest.assertSameRequest(reqs.get(i), it.next(), "request " + i);
+		}
+		// backwards, then by random accesses
+		for (int i = nbReqs - 1; i >= 0; i--) {
+			TransactionTraceTest.assertSameRequest(reqs.get(i), list.get(i), "request " + i);
+		}
+		Random rand = new Random(2);
+		for (int k = 0; k < 1000; k++) {
+			int i = rand.nextInt(nbReqs);
+			TransactionTraceTest.assertSameRequest(reqs.get(i), list.get(i), "request " + i);
+		}
+
+		assertSame(reqs.get(nbReqs - 1), list.get(nbReqs - 1));
+		Request spilled = list.get(0);
+		assertNotSame(reqs.get(0), spilled);
+		assertNotSame(spilled, list.get(0));
+		assertTrue(spilled.r_retained);
+
+		checkIndexOfEndCycle(list, reqs);
+	}
+
+	@Test
+	public void everythingButTheLastCycleIsSpilledWithAnEmptyWindow() throws IOException {
+		FinishedRequestList list = new FinishedRequestList();
+		list.setWindow(0, m_dir.resolve("spill.bin"));
+		List<Request> reqs = fill(list);
+		assertEquals(nbReqs - nbReqs % reqsPerCycle, list.getNbSpilled());
+		for (int i = 0; i < nbReqs; i++) {
+			TransactionTraceTest.assertSameRequest(reqs.get(i), list.get(i), "request " + i);
+		}
+		checkIndexOfEndCycle(list, reqs);
+	}
+
+}
@@ -0,0 +1,133 @@
+package model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import model.Request.cmd_t;
+import topcells.Topcell;
+import topcells.TopcellBuilder;
+import utils.Trace;
+import utils.Trace.Level;
+
+/**
+ * Non-blocking WTI L1 cache with MSHRs, driven by a processor replaying an access trace with a window of several
+ * pending accesses, so that the cache receives a request while it is waiting for a line.
+ * @author QLM
+ */
+public class L1WtiControllerTest {
+
+	private static final int maxPending = 4;
+	private static final int l1 = L1Controller.l1StartId;
+
+	@TempDir
+	Path m_dir;
+
+	@BeforeAll
+	static void setUp() {
+		Trace.setLevel(Level.OFF);
+	}
+
+	/**
+	 * Replays the trace by processor 0 on a topcell with one processor and one memory
+	 */
+	private static Topcell replay(AccessTraceWriter writer, Path path, int nbMshrs) throws IOException {
+		writer.close();
+		Properties props = new Properties();
+		props.setProperty("procs", "1");
+		props.setProperty("mems", "1");
+		props.setProperty("mshrs", Integer.toString(nbMshrs));
+		Topcell topcell = new TopcellBuilder().load(props).build();
+		try (AccessTraceReader reader = new AccessTraceReader(path)) {
+			topcell.getProcessor(0).setTrace(reader, maxPending);
+			assertTrue(CoherenceTest.drain(topcell));
+		}
+		return topcell;
+	}
+
+	private static int count(Topcell topcell, cmd_t cmd, long address) {
+		int res = 0;
+		for (Request req : topcell.getFinishedCacheRequests()) {
+			if (req.getCmd() == cmd && req.getAddress() == address && req.getSrcid() == l1) {
+				res++;
+			}
+		}
+		return res;
+	}
+
+	private static Request find(List<Request> reqs, cmd_t cmd, long address) {
+		for (Request req : reqs) {
+			if (req.getCmd() == cmd && req.getAddress() == address) {
+				return req;
+			}
+		}
+		return null;
+	}
+
+	private static Request findRead(Topcell topcell, long address) {
+		return find(topcell.getFinishedProcsRequests(), cmd_t.RSP_READ_WORD, address);
+	}
+
+	@Test
+	public void secondaryMissIsMergedIntoTheMshr() throws IOException {
+		Path path = m_dir.resolve("p0.trc");
+		AccessTraceWriter writer = new AccessTraceWriter(path);
+		// two words of the line 0x0, the second one read while the line is being fetched
+		writer.addRead(0, 0x0);
+		writer.addRead(0, 0x4);
+		Topcell topcell = replay(writer, path, 2);
+
+		Request secondary = find(topcell.getFinishedProcsRequests(), cmd_t.READ_WORD, 0x4);
+		Request fill = find(topcell.getFinishedCacheRequests(), cmd_t.RSP_READ_LINE, 0x0);
+		assertNotNull(secondary);
+		assertNotNull(fill);
+		assertTrue(secondary.getEndCycle() < fill.getEndCycle(), "the second read reaches the cache after the line");
+		assertEquals(1, count(topcell, cmd_t.READ_LINE, 0x0));
+		assertNotNull(findRead(topcell, 0x0));
+		assertNotNull(findRead(topcell, 0x4));
+	}
+
+	@Test
+	public void blockingCacheFetchesTheLineOnce() throws IOException {
+		Path path = m_dir.resolve("p0.trc");
+		AccessTraceWriter writer = new AccessTraceWriter(path);
+		writer.addRead(0, 0x0);
+		writer.addRead(0, 0x4);
+		Topcell topcell = replay(writer, path, 0);
+
+		// the second read waits for the first one, and hits
+		assertEquals(1, count(topcell, cmd_t.READ_LINE, 0x0));
+		assertEquals(0, topcell.getProcessor(0).getNbOutOfOrder());
+	}
+
+	@Test
+	public void hitCompletesBeforeAnOlderMiss() throws IOException {
+		Path path = m_dir.resolve("p0.trc");
+		AccessTraceWriter writer = new AccessTraceWriter(path);
+		// the line 0x40 is in the cache long before the miss on the line 0x400
+		writer.addRead(0, 0x40);
+		writer.addRead(200, 0x400);
+		writer.addRead(0, 0x44);
+		Topcell topcell = replay(writer, path, 2);
+
+		Request miss = findRead(topcell, 0x400);
+		Request hit = findRead(topcell, 0x44);
+		assertNotNull(miss);
+		assertNotNull(hit);
+		assertTrue(hit.getEndCycle() < miss.getEndCycle(),
+				"the hit ends at cycle " + hit.getEndCycle() + ", after the miss at cycle " + miss.getEndCycle());
+		assertTrue(topcell.getProcessor(0).getNbOutOfOrder() > 0);
+		assertEquals(1, count(topcell, cmd_t.READ_LINE, 0x40));
+		assertEquals(1, count(topcell, cmd_t.READ_LINE, 0x400));
+	}
+
+}
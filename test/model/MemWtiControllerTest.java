@@ -0,0 +1,70 @@
+package model;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Properties;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import model.Request.cmd_t;
+import topcells.Topcell;
+import topcells.TopcellBuilder;
+import utils.Trace;
+import utils.Trace.Level;
+
+/**
+ * Pipelining of the WTI memory controller with a transaction table.
+ * @author QLM
+ */
+public class MemWtiControllerTest {
+
+	private static final long lineA = 0x0;
+	private static final long lineB = 0x400;
+
+	@BeforeAll
+	static void setUp() {
+		Trace.setLevel(Level.OFF);
+	}
+
+	/**
+	 * @return the first finished request between a cache and a memory controller with this command, address and target
+	 */
+	static Request findCacheRequest(Topcell topcell, cmd_t cmd, long address, int tgtid) {
+		for (Request req : topcell.getFinishedCacheRequests()) {
+			if (req.getCmd() == cmd && req.getAddress() == address && req.getTgtid() == tgtid) {
+				return req;
+			}
+		}
+		return null;
+	}
+
+	@Test
+	public void readIsServedWhileTheTableIsFull() {
+		Properties props = new Properties();
+		props.setProperty("procs", "3");
+		props.setProperty("mems", "1");
+		props.setProperty("transactions", "1");
+		Topcell topcell = new TopcellBuilder().load(props).build();
+		// the invalidations take long enough for the read to arrive during the transaction
+		topcell.setLatencyModel(new FixedLatency(4));
+
+		topcell.getProcessor(0).addRead(lineA);
+		topcell.getProcessor(1).addRead(lineA);
+		assertTrue(CoherenceTest.drain(topcell));
+		// the write of line A fills the table while the caches 0 and 1 are invalidated
+		topcell.getProcessor(2).addWrite(lineA, 1);
+		topcell.getProcessor(2).addRead(lineB);
+		assertTrue(CoherenceTest.drain(topcell));
+
+		int l1 = L1Controller.l1StartId + 2;
+		Request write = findCacheRequest(topcell, cmd_t.RSP_WRITE_WORD, lineA, l1);
+		Request read = findCacheRequest(topcell, cmd_t.RSP_READ_LINE, lineB, l1);
+		assertNotNull(write);
+		assertNotNull(read);
+		assertTrue(read.getEndCycle() < write.getEndCycle(),
+				"the read of line B ends at cycle " + read.getEndCycle() + ", after the write of line A at cycle " + write.getEndCycle());
+	}
+
+}
@@ -0,0 +1,180 @@
+package model;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.junit.jupiter.api.io.TempDir;
+
+import model.Request.cmd_t;
+
+/**
+ * Round trips through TransactionTraceWriter and TransactionTraceReader: every field of the records written must be
+ * read back, including the extreme values of the signed fields, and across the refills of the buffers.
+ * @author QLM
+ */
+public class TransactionTraceTest {
+
+	private static final cmd_t [] cmds = cmd_t.values();
+
+	@TempDir
+	Path m_dir;
+
+	/**
+	 * @return a finished request with random fields, carrying data one time out of two; the start cycles
+	 *         may decrease from one request to the next one, as in the finished requests lists of a topcell
+	 */
+	static Request randomRequest(Random rand, int endCycle) {
+		long [] data = null;
+		if (rand.nextBoolean()) {
+			data = new long[1 + rand.nextInt(16)];
+			for (int i = 0; i < data.length; i++) {
+				data[i] = rand.nextLong();
+			}
+			data[0] = extremeValue(rand);
+		}
+		int startCycle = Math.max(0, endCycle - rand.nextInt(100));
+		int tgtid = rand.nextInt(4) == 0 ? -1 : rand.nextInt(200);
+		Request req = new Request(rand.nextLong() & 0x7FFFFFFFFFFFFFFCL, rand.nextInt(200), tgtid,
+				cmds[rand.nextInt(cmds.length)], startCycle, 0, data, rand.nextInt(16));
+		req.addToFinishedReqs(endCycle);
+		return req;
+	}
+
+	private static long extremeValue(Random rand) {
+		long [] vals = { 0, -1, Long.MIN_VALUE, Long.MAX_VALUE };
+		return vals[rand.nextInt(vals.length)];
+	}
+
+	static void assertSameRequest(Request expected, Request actual, String msg) {
+		assertEquals(expected.getCmd(), actual.getCmd(), msg);
+		assertEquals(expected.getStartCycle(), actual.getStartCycle(), msg);
+		assertEquals(expected.getEndCycle(), actual.getEndCycle(), msg);
+		assertEquals(expected.getAddress(), actual.getAddress(), msg);
+		assertEquals(expected.getSrcid(), actual.getSrcid(), msg);
+		assertEquals(expected.getTgtid(), actual.getTgtid(), msg);
+		assertEquals(expected.getBe(), actual.getBe(), msg);
+		assertArrayEquals(expected.getData(), actual.getData(), msg);
+	}
+
+	@Test
+	public void recordsAreReadBackInOrder() throws IOException {
+		Path path = m_dir.resolve("trace.bin");
+		Random rand = new Random(1);
+		int nbRecords = 20000;
+		List<Request> reqs = new ArrayList<Request>();
+		int [] streams = new int[nbRecords];
+		try (TransactionTraceWriter writer = new TransactionTraceWriter(path)) {
+			for (int i = 0; i < nbRecords; i++) {
+				Request req = randomRequest(rand, 3 * i);
+				streams[i] = rand.nextBoolean() ? TransactionTraceWriter.CACHE : TransactionTraceWriter.PROC;
+				writer.record(req, streams[i]);
+				reqs.add(req);
+			}
+			assertEquals(nbRecords, writer.getNbRecords());
+		}
+
+		try (TransactionTraceReader reader = new TransactionTraceReader(path)) {
+			for (int i = 0; i < nbRecords; i++) {
+				String msg = "record " + i;
+				assertTrue(reader.next(), msg);
+				Request req = reqs.get(i);
+				assertEquals(streams[i], reader.getStream(), msg);
+				assertEquals(req.getCmd(), reader.getCmd(), msg);
+				assertEquals(req.getStartCycle(), reader.getStartCycle(), msg);
+				assertEquals(req.getEndCycle(), reader.getEndCycle(), msg);
+				assertEquals(req.getAddress(), reader.getAddress(), msg);
+				assertEquals(req.getSrcid(), reader.getSrcid(), msg);
+				assertEquals(req.getTgtid(), reader.getTgtid(), msg);
+				assertEquals(req.getBe(), reader.getBe(), msg);
+				assertArrayEquals(req.getData(), reader.getData(), msg);
+				assertSameRequest(req, reader.toRequest(), msg);
+			}
+			assertFalse(reader.next());
+		}
+	}
+
+	@Test
+	public void windowSplitsTheStreams() throws IOException {
+		Path path = m_dir.resolve("trace.bin");
+		Random rand = new Random(2);
+		List<Request> reqs = new ArrayList<Request>();
+		try (TransactionTraceWriter writer = new TransactionTraceWriter(path)) {
+			for (int i = 0; i < 1000; i++) {
+				Request req = randomRequest(rand, i);
+				writer.record(req, i % 3 == 0 ? TransactionTraceWriter.PROC : TransactionTraceWriter.CACHE);
+				reqs.add(req);
+			}
+		}
+
+		List<Request> cacheReqs = new ArrayList<Request>();
+		List<Request> procReqs = new ArrayList<Request>();
+		try (TransactionTraceReader reader = new TransactionTraceReader(path)) {
+			reader.readWindow(100, 199, cacheReqs, procReqs);
+		}
+		int c = 0;
+		int p = 0;
+		for (int i = 100; i < 200; i++) {
+			if (i % 3 == 0) {
+				assertSameRequest(reqs.get(i), procReqs.get(p++), "record " + i);
+			}
+			else {
+				assertSameRequest(reqs.get(i), cacheReqs.get(c++), "record " + i);
+			}
+		}
+		assertEquals(c, cacheReqs.size());
+		assertEquals(p, procReqs.size());
+	}
+
+	@Test
+	public void emptyTraceHasNoRecord() throws IOException {
+		Path path = m_dir.resolve("trace.bin");
+		new TransactionTraceWriter(path).close();
+		try (TransactionTraceReader reader = new TransactionTraceReader(path)) {
+			assertFalse(reader.next());
+			assertNull(reader.getCmd());
+		}
+	}
+
+	@Test
+	public void truncatedAndForeignFilesAreRejected() throws IOException {
+		Path path = m_dir.resolve("trace.bin");
+		Request req = new Request(0x40, 10, 100, cmd_t.RSP_READ_LINE, 5, 0, new long[] { 1, 2, 3, 4, 5, 6, 7, 8 }, 0xF);
+		req.addToFinishedReqs(12);
+		try (TransactionTraceWriter writer = new TransactionTraceWriter(path)) {
+			writer.record(req, TransactionTraceWriter.CACHE);
+		}
+		byte [] bytes = Files.readAllBytes(path);
+		Files.write(path, Arrays.copyOf(bytes, bytes.length - 1));
+		try (final TransactionTraceReader reader = new TransactionTraceReader(path)) {
+			assertThrows(EOFException.class, new Executable() {
+				public void execute() throws IOException {
+					reader.next();
+				}
+			});
+		}
+
+		final Path other = m_dir.resolve("other.bin");
+		Files.write(other, "not a trace".getBytes("US-ASCII"));
+		assertThrows(IOException.class, new Executable() {
+			public void execute() throws IOException {
+				new TransactionTraceReader(other).close();
+			}
+		});
+	}
+
+}
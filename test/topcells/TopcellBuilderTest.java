@@ -0,0 +1,60 @@
+package topcells;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Properties;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+/**
+ * Parameters accepted and rejected by TopcellBuilder.
+ * @author QLM
+ */
+public class TopcellBuilderTest {
+
+	private static void assertRejected(String expectedMessage, final String... params) {
+		IllegalArgumentException e = assertThrows(IllegalArgumentException.class, new Executable() {
+			public void execute() {
+				Properties props = new Properties();
+				for (String param : params) {
+					String [] fields = param.split("=");
+					props.setProperty(fields[0], fields[1]);
+				}
+				new TopcellBuilder().load(props).build();
+			}
+		});
+		assertTrue(e.getMessage().contains(expectedMessage), e.getMessage());
+	}
+
+	@Test
+	public void mesiProtocolsAreRejected() {
+		assertRejected("the protocol mesi is not supported", "protocol=mesi");
+		assertRejected("the protocol mesi_restart is not supported", "protocol=mesi_restart");
+		assertThrows(IllegalArgumentException.class, new Executable() {
+			public void execute() {
+				new TopcellBuilder().setProtocol(TopcellBuilder.Protocol.MESI).build();
+			}
+		});
+	}
+
+	@Test
+	public void invalidValuesAreRejected() {
+		assertRejected("unknown protocol", "protocol=msi");
+		assertRejected("must be positive", "procs=0");
+		assertRejected("MSHRs cannot be negative", "mshrs=-1");
+	}
+
+	@Test
+	public void wtiTopcellIsBuilt() {
+		Properties props = new Properties();
+		props.setProperty("procs", "3");
+		props.setProperty("mems", "2");
+		props.setProperty("protocol", "wti");
+		Topcell topcell = new TopcellBuilder().load(props).build();
+		assertEquals(3, topcell.getNbProcs());
+	}
+
+}